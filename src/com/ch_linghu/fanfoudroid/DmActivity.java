@@ -1,7 +1,7 @@
 package com.ch_linghu.fanfoudroid;
 
-import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 
@@ -500,13 +500,8 @@ public class DmActivity extends BaseActivity implements Refreshable {
 								}));
 			}
 
-			try {
-				holder.metaText.setText(DateTimeHelper
-						.getRelativeDate(TwitterDatabase.DB_DATE_FORMATTER
-								.parse(cursor.getString(mCreatedAtColumn))));
-			} catch (ParseException e) {
-				Log.w(TAG, "Invalid created at data.");
-			}
+			holder.metaText.setText(DateTimeHelper.getRelativeDate(new Date(
+					cursor.getLong(mCreatedAtColumn))));
 		}
 
 		public void refresh() {
@@ -17,7 +17,6 @@
 package com.ch_linghu.fanfoudroid;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.text.MessageFormat;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -25,10 +24,10 @@ import java.util.regex.Pattern;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.text.ClipboardManager;
 import android.text.TextUtils;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
@@ -40,6 +39,7 @@ import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.ch_linghu.fanfoudroid.app.BitmapDecoder;
 import com.ch_linghu.fanfoudroid.app.ImageCache;
 import com.ch_linghu.fanfoudroid.app.LazyImageLoader.ImageLoaderCallback;
 import com.ch_linghu.fanfoudroid.app.Preferences;
@@ -70,6 +70,8 @@ public class StatusActivity extends BaseActivity {
 
 	private static final String EXTRA_TWEET = "tweet";
 	private static final String LAUNCH_ACTION = "com.ch_linghu.fanfoudroid.STATUS";
+	// 与status.xml中status_photo的maxWidth一致
+	private static final int PHOTO_MAX_WIDTH = 460;
 
 	static final private int CONTEXT_REFRESH_ID = 0x0001;
 	static final private int CONTEXT_CLIPBOARD_ID = 0x0002;
@@ -576,12 +578,12 @@ public class StatusActivity extends BaseActivity {
 		Log.d(TAG, "Fetching Photo: " + url);
 		Response res = mClient.get(url);
 
-		// FIXME:这里使用了一个作废的方法，如何修正？
-		InputStream is = res.asStream();
-		Bitmap bitmap = BitmapFactory.decodeStream(is);
-		is.close();
-
-		return bitmap;
+		// 按屏幕尺寸缩小解码, status_photo最宽为460px
+		byte[] data = res.asByteArray();
+		DisplayMetrics metrics = getResources().getDisplayMetrics();
+		return BitmapDecoder.decodeByteArray(data,
+				Math.min(metrics.widthPixels, PHOTO_MAX_WIDTH),
+				metrics.heightPixels);
 	}
 
 	private void doGetRelativeTweet(String status_id) {
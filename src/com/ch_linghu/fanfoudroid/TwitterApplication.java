@@ -1,12 +1,16 @@
 package com.ch_linghu.fanfoudroid;
 
+import java.io.File;
 import java.util.HashSet;
 
 //import org.acra.ReportingInteractionMode;
 //import org.acra.annotation.ReportsCrashes;
 
 import android.app.Application;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.ConnectivityManager;
@@ -22,6 +26,7 @@ import com.ch_linghu.fanfoudroid.fanfou.Configuration;
 import com.ch_linghu.fanfoudroid.fanfou.User;
 import com.ch_linghu.fanfoudroid.fanfou.Weibo;
 import com.ch_linghu.fanfoudroid.http.HttpException;
+import com.ch_linghu.fanfoudroid.http.ResponseCache;
 import com.ch_linghu.fanfoudroid.task.GenericTask;
 import com.ch_linghu.fanfoudroid.task.TaskAdapter;
 import com.ch_linghu.fanfoudroid.task.TaskParams;
@@ -50,7 +55,8 @@ public class TwitterApplication extends Application {
 	public static Context mContext;
 	public static SharedPreferences mPref;
 
-	public static int networkType = 0;
+	// 当前网络的ConnectivityManager.TYPE_*, 默认按移动网络处理, 网络切换时更新
+	public static volatile int networkType = 0;
 
 	public final static boolean DEBUG = Configuration.getDebug();
 	
@@ -122,6 +128,9 @@ public class TwitterApplication extends Application {
 		// mImageManager = new ImageManager(this);
 		mImageLoader = new LazyImageLoader();
 		mApi = new Weibo();
+		mApi.getHttpClient().setResponseCache(
+				new ResponseCache(new File(getCacheDir(), "http"),
+						ResponseCache.DEFAULT_MAX_BYTES));
 		mDb = TwitterDatabase.getInstance(this);
 
 		mPref = PreferenceManager.getDefaultSharedPreferences(this);
@@ -140,6 +149,14 @@ public class TwitterApplication extends Application {
 			Toast.makeText(this, "您当前正在使用cmwap网络上网.", Toast.LENGTH_SHORT);
 			mApi.getHttpClient().setProxy("10.0.0.172", 80, "http");
 		}
+
+		// WIFI和移动网络切换时更新networkType
+		registerReceiver(new BroadcastReceiver() {
+			@Override
+			public void onReceive(Context context, Intent intent) {
+				getNetworkType();
+			}
+		}, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
 	}
 
 	public String getNetworkType() {
@@ -148,14 +165,25 @@ public class TwitterApplication extends Application {
 		// NetworkInfo mobNetInfo = connectivityManager
 		// .getNetworkInfo(ConnectivityManager.TYPE_MOBILE);
 		if (activeNetInfo != null) {
+			// 决定头像下载等的并发数
+			networkType = activeNetInfo.getType();
 			return activeNetInfo.getExtraInfo(); // 接入点名称: 此名称可被用户任意更改 如: cmwap,
 													// cmnet,
 													// internet ...
 		} else {
+			networkType = 0;
 			return null;
 		}
 	}
 
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		if (null != mImageLoader) {
+			mImageLoader.getImageManager().onLowMemory();
+		}
+	}
+
 	@Override
 	public void onTerminate() {
 		// FIXME: 根据android文档，onTerminate不会在真实机器上被执行到
@@ -0,0 +1,100 @@
+package com.ch_linghu.fanfoudroid.app;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * 按显示尺寸解码图片
+ * 
+ * 先只解码图片尺寸, 计算出不小于目标尺寸的最大2的幂inSampleSize, 再以该比例解码;
+ * JPEG没有透明通道, 使用RGB_565, 每像素只占2字节.
+ * 
+ * BitmapFactory.Options.inBitmap需要API 11, 无法复用Bitmap本身, 这里只复用每个线程的解码缓冲区.
+ */
+public final class BitmapDecoder {
+
+	// BitmapFactory默认每次解码分配16K的临时缓冲区
+	private static final int TEMP_STORAGE_SIZE = 16 * 1024;
+
+	private static final ThreadLocal<byte[]> sTempStorage = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[TEMP_STORAGE_SIZE];
+		}
+	};
+
+	private BitmapDecoder() {
+	}
+
+	/**
+	 * @param path
+	 * @param reqWidth
+	 *            目标宽度(px), 0表示不限
+	 * @param reqHeight
+	 *            目标高度(px), 0表示不限
+	 * @return 无法解码时返回null
+	 */
+	public static Bitmap decodeFile(String path, int reqWidth, int reqHeight) {
+		BitmapFactory.Options options = newOptions();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, options);
+		if (!prepare(options, reqWidth, reqHeight)) {
+			return null;
+		}
+		return BitmapFactory.decodeFile(path, options);
+	}
+
+	/**
+	 * @see #decodeFile(String, int, int)
+	 */
+	public static Bitmap decodeByteArray(byte[] data, int reqWidth,
+			int reqHeight) {
+		BitmapFactory.Options options = newOptions();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		if (!prepare(options, reqWidth, reqHeight)) {
+			return null;
+		}
+		return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+	}
+
+	/**
+	 * 缩小后的宽高仍不小于目标尺寸的最大2的幂
+	 */
+	public static int calculateInSampleSize(int width, int height,
+			int reqWidth, int reqHeight) {
+		int sampleSize = 1;
+		while ((reqWidth <= 0 || width / (sampleSize * 2) >= reqWidth)
+				&& (reqHeight <= 0 || height / (sampleSize * 2) >= reqHeight)
+				&& (reqWidth > 0 || reqHeight > 0)) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+	private static BitmapFactory.Options newOptions() {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inTempStorage = sTempStorage.get();
+		return options;
+	}
+
+	/**
+	 * 根据只解码尺寸的结果设置正式解码的参数
+	 * 
+	 * @return 图片无法识别时返回false
+	 */
+	private static boolean prepare(BitmapFactory.Options options,
+			int reqWidth, int reqHeight) {
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			return false;
+		}
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = calculateInSampleSize(options.outWidth,
+				options.outHeight, reqWidth, reqHeight);
+		if ("image/jpeg".equals(options.outMimeType)) {
+			options.inPreferredConfig = Bitmap.Config.RGB_565;
+			options.inDither = true;
+		}
+		return true;
+	}
+}
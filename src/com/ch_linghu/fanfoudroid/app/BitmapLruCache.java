@@ -0,0 +1,174 @@
+package com.ch_linghu.fanfoudroid.app;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+/**
+ * 按Bitmap占用字节数计量的LRU内存缓存
+ * 
+ * SoftReference在Dalvik上会被很早回收, 几乎每次滚动都要重新从文件解码头像, 因此这里使用强引用,
+ * 以总字节数为上限淘汰最久未使用的图片. 被淘汰的Bitmap可能仍在显示, 不对其调用recycle().
+ */
+public class BitmapLruCache {
+	private static final String TAG = "BitmapLruCache";
+
+	// 占用堆上限的比例, 与其他缓存共享剩余部分
+	private static final int HEAP_FRACTION = 8;
+
+	private final LinkedHashMap<String, Bitmap> mMap;
+	private final int mMaxBytes;
+	private int mSize = 0;
+
+	private int mHitCount = 0;
+	private int mMissCount = 0;
+	private int mPutCount = 0;
+	private int mEvictionCount = 0;
+
+	/**
+	 * @param maxBytes
+	 *            缓存中Bitmap的总字节数上限
+	 */
+	public BitmapLruCache(int maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("maxBytes <= 0");
+		}
+		mMaxBytes = maxBytes;
+		mMap = new LinkedHashMap<String, Bitmap>(0, 0.75f, true);
+	}
+
+	/**
+	 * 根据应用可用的堆大小确定缓存上限
+	 * 
+	 * ActivityManager.getMemoryClass()需要API 5, 而Runtime.maxMemory()在所有版本上
+	 * 都返回同一个堆上限.
+	 */
+	public static int defaultMaxBytes() {
+		long maxMemory = Runtime.getRuntime().maxMemory();
+		return (int) Math.min(Integer.MAX_VALUE, maxMemory / HEAP_FRACTION);
+	}
+
+	/**
+	 * Bitmap.getByteCount()需要API 12
+	 */
+	public static int sizeOf(Bitmap bitmap) {
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	/**
+	 * @return 不存在时返回null
+	 */
+	public synchronized Bitmap get(String key) {
+		Bitmap bitmap = mMap.get(key);
+		if (null != bitmap) {
+			mHitCount++;
+		} else {
+			mMissCount++;
+		}
+		return bitmap;
+	}
+
+	/**
+	 * 不影响LRU顺序和命中统计
+	 */
+	public synchronized boolean contains(String key) {
+		return mMap.containsKey(key);
+	}
+
+	/**
+	 * 超过上限的单张图片不被缓存
+	 * 
+	 * @return 被替换的Bitmap
+	 */
+	public synchronized Bitmap put(String key, Bitmap bitmap) {
+		if (null == key || null == bitmap) {
+			throw new NullPointerException("key == null || bitmap == null");
+		}
+		int size = sizeOf(bitmap);
+		if (size > mMaxBytes) {
+			Log.w(TAG, "Bitmap too large to cache: " + key + " " + size);
+			return remove(key);
+		}
+
+		mPutCount++;
+		mSize += size;
+		Bitmap previous = mMap.put(key, bitmap);
+		if (null != previous) {
+			mSize -= sizeOf(previous);
+		}
+		trimToSize(mMaxBytes);
+		return previous;
+	}
+
+	public synchronized Bitmap remove(String key) {
+		Bitmap previous = mMap.remove(key);
+		if (null != previous) {
+			mSize -= sizeOf(previous);
+		}
+		return previous;
+	}
+
+	/**
+	 * 淘汰最久未使用的图片, 直到总字节数不超过maxBytes
+	 */
+	public synchronized void trimToSize(int maxBytes) {
+		Iterator<Map.Entry<String, Bitmap>> it = mMap.entrySet().iterator();
+		while (mSize > maxBytes && it.hasNext()) {
+			Map.Entry<String, Bitmap> eldest = it.next();
+			mSize -= sizeOf(eldest.getValue());
+			it.remove();
+			mEvictionCount++;
+		}
+	}
+
+	/**
+	 * 清空缓存, 如在onLowMemory()时
+	 */
+	public synchronized void evictAll() {
+		trimToSize(-1);
+	}
+
+	/**
+	 * @return 当前缓存的总字节数
+	 */
+	public synchronized int size() {
+		return mSize;
+	}
+
+	public int maxSize() {
+		return mMaxBytes;
+	}
+
+	public synchronized int count() {
+		return mMap.size();
+	}
+
+	public synchronized int hitCount() {
+		return mHitCount;
+	}
+
+	public synchronized int missCount() {
+		return mMissCount;
+	}
+
+	public synchronized int putCount() {
+		return mPutCount;
+	}
+
+	public synchronized int evictionCount() {
+		return mEvictionCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		int accesses = mHitCount + mMissCount;
+		int hitPercent = (0 == accesses) ? 0 : (100 * mHitCount / accesses);
+		return "BitmapLruCache[size=" + mSize + ",maxSize=" + mMaxBytes
+				+ ",count=" + mMap.size() + ",hits=" + mHitCount + ",misses="
+				+ mMissCount + ",evictions=" + mEvictionCount + ",hitRate="
+				+ hitPercent + "%]";
+	}
+}
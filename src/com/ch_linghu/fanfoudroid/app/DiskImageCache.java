@@ -0,0 +1,475 @@
+package com.ch_linghu.fanfoudroid.app;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * 保存图片原始字节的磁盘LRU缓存
+ * 
+ * 每张图片以URL的MD5为文件名保存, 总大小不超过给定的字节数, 超出时逐个淘汰最久未使用的文件.
+ * 所有修改和访问都追加记录到journal文件中, 启动时只读journal即可重建索引和LRU顺序,
+ * 不需要扫描目录. 临时文件在创建之前先记录到journal, 进程在写入中途被杀时, 按journal
+ * 删除残留的临时文件.
+ * 
+ * <pre>
+ * journal格式, 每行一条:
+ *   DIRTY &lt;key&gt; &lt;tmp&gt;        开始写入临时文件tmp, 其后必有PUT或ABORT, 否则tmp和key都不可信
+ *   PUT &lt;key&gt; &lt;size&gt; [&lt;tmp&gt;] 写入完成(已从临时文件tmp改名), 重写journal时不带tmp
+ *   ABORT &lt;key&gt; &lt;tmp&gt;        写入失败, 临时文件已删除
+ *   DEL &lt;key&gt;                删除
+ *   GET &lt;key&gt;                访问, 只影响LRU顺序
+ * </pre>
+ */
+public class DiskImageCache {
+	private static final String TAG = "DiskImageCache";
+
+	public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+	static final String JOURNAL_FILE = "journal";
+	private static final String JOURNAL_TMP = "journal.tmp";
+	private static final String MAGIC = "fanfoudroid.DiskImageCache";
+	private static final String VERSION = "1";
+
+	private static final String DIRTY = "DIRTY";
+	private static final String PUT = "PUT";
+	private static final String ABORT = "ABORT";
+	private static final String DEL = "DEL";
+	private static final String GET = "GET";
+
+	// journal中冗余的行数超过此值且超过记录数时重写journal
+	private static final int COMPACT_THRESHOLD = 2000;
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final File mDirectory;
+	private final long mMaxBytes;
+	private long mSize = 0;
+	private int mRedundantOps = 0;
+	private Writer mJournal = null;
+	// 写临时文件时用于生成不重复的文件名
+	private int mNextTmpId = 0;
+	// 正在写入的临时文件名 -> key, 重写journal时保留其DIRTY记录
+	private final Map<String, String> mPending = new HashMap<String, String>();
+
+	// key -> 文件大小, 按访问顺序排列, 最久未使用的在最前
+	private final LinkedHashMap<String, Long> mIndex = new LinkedHashMap<String, Long>(
+			32, 0.75f, true);
+
+	public DiskImageCache(File directory, long maxBytes) {
+		mDirectory = directory;
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * @param url
+	 * @return 缓存文件, 不存在时返回null
+	 */
+	public synchronized File get(String url) {
+		ensureOpen();
+
+		String key = hash(url);
+		if (null == mIndex.get(key)) {
+			return null;
+		}
+		File file = getFile(key);
+		if (!file.exists()) {
+			// 被外部删除, 如系统清理了cache目录
+			removeKey(key);
+			return null;
+		}
+		appendJournal(GET + " " + key);
+		mRedundantOps++;
+		return file;
+	}
+
+	public synchronized boolean contains(String url) {
+		ensureOpen();
+
+		return mIndex.containsKey(hash(url));
+	}
+
+	/**
+	 * 将in中的原始字节写入缓存. 先在journal中记录临时文件名, 写入临时文件后再改名,
+	 * 写入过程中不持有锁
+	 * 
+	 * @param url
+	 * @param in
+	 *            由调用者关闭
+	 * @return 缓存文件
+	 * @throws IOException
+	 *             写入失败, 缓存中原有的内容不受影响
+	 */
+	public File put(String url, InputStream in) throws IOException {
+		String key = hash(url);
+		File tmp;
+		synchronized (this) {
+			ensureOpen();
+			tmp = new File(mDirectory, key + "." + (mNextTmpId++) + ".tmp");
+			// 在创建文件之前记录, 进程被杀时下次启动据此删除
+			mPending.put(tmp.getName(), key);
+			appendJournal(DIRTY + " " + key + " " + tmp.getName());
+			mRedundantOps++;
+		}
+
+		long size = 0;
+		OutputStream out = null;
+		boolean written = false;
+		try {
+			out = new FileOutputStream(tmp);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+				size += n;
+			}
+			out.close();
+			written = true;
+		} finally {
+			if (!written) {
+				closeQuietly(out);
+				abort(key, tmp);
+			}
+		}
+
+		return commit(key, tmp, size);
+	}
+
+	/**
+	 * @see #put(String, InputStream)
+	 */
+	public File put(String url, byte[] data) throws IOException {
+		return put(url, new ByteArrayInputStream(data));
+	}
+
+	/**
+	 * 删除写入失败的临时文件, 并在journal中结束对应的DIRTY
+	 */
+	private synchronized void abort(String key, File tmp) {
+		mPending.remove(tmp.getName());
+		tmp.delete();
+		appendJournal(ABORT + " " + key + " " + tmp.getName());
+		mRedundantOps++;
+	}
+
+	private synchronized File commit(String key, File tmp, long size)
+			throws IOException {
+		File file = getFile(key);
+		if (size > mMaxBytes) {
+			removeKey(key);
+			abort(key, tmp);
+			throw new IOException("Image too large to cache: " + size);
+		}
+		// 改名后, 记录PUT之前进程被杀时, 下次启动按DIRTY删除该文件
+		if (!tmp.renameTo(file)) {
+			removeKey(key);
+			abort(key, tmp);
+			throw new IOException("Unable to rename " + tmp);
+		}
+		mPending.remove(tmp.getName());
+
+		Long old = mIndex.put(key, size);
+		if (null != old) {
+			mSize -= old;
+			mRedundantOps++;
+		}
+		mSize += size;
+		appendJournal(PUT + " " + key + " " + size + " " + tmp.getName());
+		trimToSize();
+		compactIfNeeded();
+		return file;
+	}
+
+	public synchronized boolean remove(String url) {
+		ensureOpen();
+
+		return removeKey(hash(url));
+	}
+
+	private boolean removeKey(String key) {
+		Long size = mIndex.remove(key);
+		if (null == size) {
+			return false;
+		}
+		mSize -= size;
+		getFile(key).delete();
+		appendJournal(DEL + " " + key);
+		mRedundantOps += 2;
+		return true;
+	}
+
+	/**
+	 * 删除所有缓存的图片, 包括进程在写入中途被杀时残留的临时文件
+	 */
+	public synchronized void clear() {
+		ensureOpen();
+
+		closeQuietly(mJournal);
+		deleteContents(mDirectory);
+		mIndex.clear();
+		mSize = 0;
+		rebuildJournal();
+	}
+
+	/**
+	 * @return 缓存的总字节数
+	 */
+	public synchronized long size() {
+		ensureOpen();
+
+		return mSize;
+	}
+
+	public long maxSize() {
+		return mMaxBytes;
+	}
+
+	public synchronized int count() {
+		ensureOpen();
+
+		return mIndex.size();
+	}
+
+	/**
+	 * 逐个淘汰最久未使用的图片, 直到总大小不超过上限
+	 */
+	private void trimToSize() {
+		Iterator<Map.Entry<String, Long>> it = mIndex.entrySet().iterator();
+		while (mSize > mMaxBytes && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			String key = eldest.getKey();
+			mSize -= eldest.getValue();
+			it.remove();
+			getFile(key).delete();
+			appendJournal(DEL + " " + key);
+			mRedundantOps += 2;
+		}
+	}
+
+	/**
+	 * 首次使用时从journal重建索引并删除未完成的写入. journal不存在或损坏时清空缓存目录
+	 */
+	private void ensureOpen() {
+		if (null != mJournal) {
+			return;
+		}
+		if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+			Log.w(TAG, "Unable to create cache directory " + mDirectory);
+		}
+
+		File journal = new File(mDirectory, JOURNAL_FILE);
+		if (journal.exists()) {
+			try {
+				if (readJournal(journal)) {
+					mJournal = new BufferedWriter(new FileWriter(journal,
+							true), BUFFER_SIZE);
+					compactIfNeeded();
+				} else {
+					rebuildJournal();
+				}
+				return;
+			} catch (IOException e) {
+				Log.w(TAG, "Journal is corrupt, clear cache " + mDirectory, e);
+			}
+		}
+
+		deleteContents(mDirectory);
+		mIndex.clear();
+		mSize = 0;
+		rebuildJournal();
+	}
+
+	/**
+	 * @return false表示有未完成的写入被丢弃, journal需要重写
+	 */
+	private boolean readJournal(File journal) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(journal), "US-ASCII"), BUFFER_SIZE);
+		try {
+			if (!MAGIC.equals(reader.readLine())
+					|| !VERSION.equals(reader.readLine())) {
+				throw new IOException("Unexpected journal header");
+			}
+
+			// 有DIRTY而没有之后的PUT/ABORT的临时文件名 -> key
+			Map<String, String> dirty = new HashMap<String, String>();
+			int lines = 0;
+			String line;
+			while (null != (line = reader.readLine())) {
+				lines++;
+				String[] parts = line.split(" ");
+				if (parts.length < 2) {
+					// 最后一行可能因进程被杀而不完整
+					continue;
+				}
+				String op = parts[0];
+				String key = parts[1];
+				if (DIRTY.equals(op) && 3 == parts.length) {
+					dirty.put(parts[2], key);
+				} else if (ABORT.equals(op) && 3 == parts.length) {
+					dirty.remove(parts[2]);
+				} else if (PUT.equals(op)
+						&& (3 == parts.length || 4 == parts.length)) {
+					if (4 == parts.length) {
+						dirty.remove(parts[3]);
+					}
+					long size = Long.parseLong(parts[2]);
+					Long old = mIndex.put(key, size);
+					if (null != old) {
+						mSize -= old;
+					}
+					mSize += size;
+				} else if (DEL.equals(op)) {
+					Long old = mIndex.remove(key);
+					if (null != old) {
+						mSize -= old;
+					}
+				} else if (GET.equals(op)) {
+					mIndex.get(key);
+				}
+			}
+			mRedundantOps = lines - mIndex.size();
+
+			// 临时文件可能写了一半; 也可能已改名而未记录PUT, 此时key的内容和大小都不可信
+			for (Map.Entry<String, String> entry : dirty.entrySet()) {
+				String key = entry.getValue();
+				getFile(entry.getKey()).delete();
+				Long old = mIndex.remove(key);
+				if (null != old) {
+					mSize -= old;
+				}
+				getFile(key).delete();
+			}
+			return dirty.isEmpty();
+		} catch (NumberFormatException e) {
+			throw new IOException("Corrupt journal line: " + e.getMessage());
+		} finally {
+			closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * 按当前索引重写journal, 先写临时文件再改名
+	 */
+	private void rebuildJournal() {
+		closeQuietly(mJournal);
+		mJournal = null;
+
+		File journal = new File(mDirectory, JOURNAL_FILE);
+		File tmp = new File(mDirectory, JOURNAL_TMP);
+		Writer writer = null;
+		try {
+			writer = new BufferedWriter(new FileWriter(tmp), BUFFER_SIZE);
+			writer.write(MAGIC + "\n" + VERSION + "\n");
+			for (Map.Entry<String, Long> entry : mIndex.entrySet()) {
+				writer.write(PUT + " " + entry.getKey() + " "
+						+ entry.getValue() + "\n");
+			}
+			for (Map.Entry<String, String> entry : mPending.entrySet()) {
+				writer.write(DIRTY + " " + entry.getValue() + " "
+						+ entry.getKey() + "\n");
+			}
+			writer.close();
+			writer = null;
+			if (!tmp.renameTo(journal)) {
+				throw new IOException("Unable to rename " + tmp);
+			}
+			mJournal = new BufferedWriter(new FileWriter(journal, true),
+					BUFFER_SIZE);
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to write journal " + journal, e);
+			closeQuietly(writer);
+			// 无法记录journal时仍可使用内存中的索引, 下次启动将清空缓存
+			mJournal = new NullWriter();
+		}
+		mRedundantOps = 0;
+	}
+
+	private void compactIfNeeded() {
+		if (mRedundantOps >= COMPACT_THRESHOLD
+				&& mRedundantOps >= mIndex.size()) {
+			rebuildJournal();
+		}
+	}
+
+	// 只在内存缓存未命中时才访问磁盘缓存, 每行都立即写入
+	private void appendJournal(String line) {
+		try {
+			mJournal.write(line + "\n");
+			mJournal.flush();
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to append journal", e);
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(mDirectory, key);
+	}
+
+	private static void deleteContents(File dir) {
+		File[] files = dir.listFiles();
+		if (null == files) {
+			return;
+		}
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	static String hash(String url) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			byte[] digest = md.digest(url.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+				sb.append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("No MD5 algorithm.");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void closeQuietly(java.io.Closeable c) {
+		if (null != c) {
+			try {
+				c.close();
+			} catch (IOException ignore) {
+			}
+		}
+	}
+
+	// journal无法写入时使用
+	private static class NullWriter extends Writer {
+		@Override
+		public void write(char[] buf, int offset, int count) {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -16,19 +16,15 @@
 
 package com.ch_linghu.fanfoudroid.app;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.SoftReference;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -49,6 +45,11 @@ import com.ch_linghu.fanfoudroid.http.Response;
 public class ImageManager implements ImageCache {
 	private static final String TAG = "ImageManager";
 
+	// 磁盘缓存在cache目录下的子目录
+	private static final String DISK_CACHE_DIR = "images";
+	// 最大的头像显示尺寸(个人资料页), 列表中为48dp
+	private static final int AVATAR_SIZE_DIP = 64;
+
 	// 饭否目前最大宽度支持596px, 超过则同比缩小
 	// 最大高度为1192px, 超过从中截取
 	public static final int DEFAULT_COMPRESS_QUALITY = 90;
@@ -57,9 +58,11 @@ public class ImageManager implements ImageCache {
 
 	private Context mContext;
 	// In memory cache.
-	private Map<String, SoftReference<Bitmap>> mCache;
-	// MD5 hasher.
-	private MessageDigest mDigest;
+	private BitmapLruCache mCache;
+	// 原始图片字节的磁盘缓存
+	private DiskImageCache mDiskCache;
+	// 解码的目标尺寸(px), 更大的图片按比例缩小解码
+	private int mTargetSize;
 
 	public static Bitmap drawableToBitmap(Drawable drawable) {
 		Bitmap bitmap = Bitmap
@@ -77,14 +80,11 @@ public class ImageManager implements ImageCache {
 
 	public ImageManager(Context context) {
 		mContext = context;
-		mCache = new HashMap<String, SoftReference<Bitmap>>();
-
-		try {
-			mDigest = MessageDigest.getInstance("MD5");
-		} catch (NoSuchAlgorithmException e) {
-			// This shouldn't happen.
-			throw new RuntimeException("No MD5 algorithm.");
-		}
+		mCache = new BitmapLruCache(BitmapLruCache.defaultMaxBytes());
+		mDiskCache = new DiskImageCache(new File(context.getCacheDir(),
+				DISK_CACHE_DIR), DiskImageCache.DEFAULT_MAX_BYTES);
+		mTargetSize = (int) (AVATAR_SIZE_DIP
+				* context.getResources().getDisplayMetrics().density + 0.5f);
 	}
 
 	public void setContext(Context context) {
@@ -103,61 +103,71 @@ public class ImageManager implements ImageCache {
 	}
 
 	// MD5 hases are used to generate filenames based off a URL.
+	// MessageDigest不是线程安全的, 而图片由多个线程下载, 因此每次新建一个
 	private String getMd5(String url) {
-		mDigest.update(url.getBytes());
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			// This shouldn't happen.
+			throw new RuntimeException("No MD5 algorithm.");
+		}
+		digest.update(url.getBytes());
 
-		return getHashString(mDigest);
+		return getHashString(digest);
 	}
 
-	// Looks to see if an image is in the file system.
+	// Looks to see if an image is in the disk cache.
 	private Bitmap lookupFile(String url) {
-		String hashedUrl = getMd5(url);
-		FileInputStream fis = null;
-
-		try {
-			fis = mContext.openFileInput(hashedUrl);
-			return BitmapFactory.decodeStream(fis);
-		} catch (FileNotFoundException e) {
+		File file = mDiskCache.get(url);
+		if (null == file) {
 			// Not there.
 			return null;
-		} finally {
-			if (fis != null) {
-				try {
-					fis.close();
-				} catch (IOException e) {
-					// Ignore.
-				}
-			}
 		}
+
+		Bitmap bitmap = BitmapDecoder.decodeFile(file.getPath(), mTargetSize,
+				mTargetSize);
+		if (null == bitmap) {
+			// 文件已损坏, 或在解码前被淘汰
+			mDiskCache.remove(url);
+		}
+		return bitmap;
 	}
 
 	/**
-	 * Downloads a file
+	 * 下载图片, 原始字节写入磁盘缓存后再解码
 	 * 
 	 * @param url
-	 * @return
+	 * @return 无法解码时返回null
 	 * @throws HttpException
 	 */
 	public Bitmap downloadImage(String url) throws HttpException {
 		Log.d(TAG, "Fetching image: " + url);
 		Response res = TwitterApplication.mApi.getHttpClient().get(url);
-		return BitmapFactory.decodeStream(new BufferedInputStream(res
-				.asStream()));
-	}
-
-	public Bitmap downloadImage2(String url) throws HttpException {
-		Log.d(TAG, "[NEW]Fetching image: " + url);
-		final Response res = TwitterApplication.mApi.getHttpClient().get(url);
-		String file = writeToFile(res.asStream(), getMd5(url));
-		return BitmapFactory.decodeFile(file);
+		InputStream in = res.asStream();
+		if (null == in) {
+			throw new HttpException("Empty response: " + url);
+		}
+		try {
+			mDiskCache.put(url, in);
+		} catch (IOException e) {
+			throw new HttpException(e.getMessage(), e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// Ignore.
+			}
+		}
+		return lookupFile(url);
 	}
 
 	/**
-	 * 下载远程图片 -> 转换为Bitmap -> 写入缓存器.
+	 * 下载远程图片 -> 原始字节写入磁盘缓存 -> 转换为Bitmap写入内存缓存.
 	 * 
 	 * @param url
 	 * @param quality
-	 *            image quality 1～100
+	 *            不再使用, 磁盘缓存保存原始字节
 	 * @throws HttpException
 	 */
 	public void put(String url, int quality, boolean forceOverride)
@@ -169,9 +179,9 @@ public class ImageManager implements ImageCache {
 			// TODO: write to file if not present.
 		}
 
-		Bitmap bitmap = downloadImage(url);
+		Bitmap bitmap = downloadImage(url); // file cache
 		if (bitmap != null) {
-			put(url, bitmap, quality); // file cache
+			mCache.put(url, bitmap);
 		} else {
 			Log.w(TAG, "Retrieved bitmap is null.");
 		}
@@ -188,11 +198,11 @@ public class ImageManager implements ImageCache {
 	}
 
 	/**
-	 * 将本地File -> 转换为Bitmap -> 写入缓存器. 如果图片大小超过MAX_WIDTH/MAX_HEIGHT, 则将会对图片缩放.
+	 * 将本地File原样复制到磁盘缓存 -> 转换为Bitmap -> 写入内存缓存.
 	 * 
 	 * @param file
 	 * @param quality
-	 *            图片质量(0~100)
+	 *            不再使用, 磁盘缓存保存原始字节
 	 * @param forceOverride
 	 * @throws IOException
 	 */
@@ -209,18 +219,23 @@ public class ImageManager implements ImageCache {
 			// TODO: write to file if not present.
 		}
 
-		Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
-		// bitmap = resizeBitmap(bitmap, MAX_WIDTH, MAX_HEIGHT);
+		FileInputStream in = new FileInputStream(file);
+		try {
+			mDiskCache.put(file.getPath(), in);
+		} finally {
+			in.close();
+		}
+		Bitmap bitmap = lookupFile(file.getPath());
 
 		if (bitmap == null) {
 			Log.w(TAG, "Retrieved bitmap is null.");
 		} else {
-			put(file.getPath(), bitmap, quality);
+			mCache.put(file.getPath(), bitmap);
 		}
 	}
 
 	/**
-	 * 将Bitmap写入缓存器.
+	 * 将Bitmap写入缓存器. 没有原始字节, 只能压缩为JPEG写入磁盘缓存
 	 * 
 	 * @param filePath
 	 *            file path
@@ -229,11 +244,15 @@ public class ImageManager implements ImageCache {
 	 *            1~100
 	 */
 	public void put(String file, Bitmap bitmap, int quality) {
-		synchronized (this) {
-			mCache.put(file, new SoftReference<Bitmap>(bitmap));
-		}
+		mCache.put(file, bitmap);
 
-		writeFile(file, bitmap, quality);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		bitmap.compress(Bitmap.CompressFormat.JPEG, quality, bos);
+		try {
+			mDiskCache.put(file, bos.toByteArray());
+		} catch (IOException e) {
+			Log.e(TAG, "Could not write cache: " + file, e);
+		}
 	}
 
 	/**
@@ -251,7 +270,7 @@ public class ImageManager implements ImageCache {
 	}
 
 	/**
-	 * 将Bitmap写入本地缓存文件.
+	 * 将Bitmap压缩后写入files目录, 供上传使用.
 	 * 
 	 * @param file
 	 *            URL/PATH
@@ -275,8 +294,8 @@ public class ImageManager implements ImageCache {
 			Log.e(TAG, ioe.getMessage());
 		} finally {
 			try {
+				// bitmap可能仍在内存缓存中, 由调用者决定是否recycle
 				if (bos != null) {
-					bitmap.recycle();
 					bos.flush();
 					bos.close();
 				}
@@ -287,37 +306,6 @@ public class ImageManager implements ImageCache {
 		}
 	}
 
-	private String writeToFile(InputStream is, String filename) {
-		Log.d("LDS", "new write to file");
-		BufferedInputStream in = null;
-		BufferedOutputStream out = null;
-		try {
-			in = new BufferedInputStream(is);
-			out = new BufferedOutputStream(mContext.openFileOutput(filename,
-					Context.MODE_PRIVATE));
-			byte[] buffer = new byte[1024];
-			int l;
-			while ((l = in.read(buffer)) != -1) {
-				out.write(buffer, 0, l);
-			}
-		} catch (IOException ioe) {
-			ioe.printStackTrace();
-		} finally {
-			try {
-				if (in != null)
-					in.close();
-				if (out != null) {
-					Log.d("LDS", "new write to file to -> " + filename);
-					out.flush();
-					out.close();
-				}
-			} catch (IOException ioe) {
-				ioe.printStackTrace();
-			}
-		}
-		return mContext.getFilesDir() + "/" + filename;
-	}
-
 	public Bitmap get(File file) {
 		return get(file.getPath());
 	}
@@ -326,7 +314,31 @@ public class ImageManager implements ImageCache {
 	 * 判断缓存着中是否存在该文件对应的bitmap
 	 */
 	public boolean isContains(String file) {
-		return mCache.containsKey(file);
+		return mCache.contains(file);
+	}
+
+	/**
+	 * 只查找内存缓存
+	 * 
+	 * @return 不存在时返回null
+	 */
+	public Bitmap getFromMemory(String file) {
+		return mCache.get(file);
+	}
+
+	/**
+	 * 内存缓存, 可用于查看命中/淘汰统计
+	 */
+	public BitmapLruCache getMemoryCache() {
+		return mCache;
+	}
+
+	/**
+	 * 内存不足时清空内存缓存, 文件缓存不受影响
+	 */
+	public void onLowMemory() {
+		Log.d(TAG, "onLowMemory: " + mCache);
+		mCache.evictAll();
 	}
 
 	/**
@@ -342,16 +354,14 @@ public class ImageManager implements ImageCache {
 		Bitmap bitmap = lookupFile(file); // first try file.
 
 		if (bitmap != null) {
-			synchronized (this) { // memory cache
-				mCache.put(file, new SoftReference<Bitmap>(bitmap));
-			}
+			mCache.put(file, bitmap); // memory cache
 			return bitmap;
 		} else { // get from web
 			String url = file;
-			bitmap = downloadImage2(url);
-
-			// 注释掉以测试新的写入文件方法
-			// put(file, bitmap); // file Cache
+			bitmap = downloadImage(url);
+			if (bitmap != null) {
+				mCache.put(file, bitmap);
+			}
 			return bitmap;
 		}
 	}
@@ -365,30 +375,17 @@ public class ImageManager implements ImageCache {
 	 * @param quality
 	 */
 	public Bitmap get(String file) {
-		SoftReference<Bitmap> ref;
-		Bitmap bitmap;
-
 		// Look in memory first.
-		synchronized (this) {
-			ref = mCache.get(file);
-		}
-
-		if (ref != null) {
-			bitmap = ref.get();
-
-			if (bitmap != null) {
-				return bitmap;
-			}
+		Bitmap bitmap = mCache.get(file);
+		if (bitmap != null) {
+			return bitmap;
 		}
 
 		// Now try file.
 		bitmap = lookupFile(file);
 
 		if (bitmap != null) {
-			synchronized (this) {
-				mCache.put(file, new SoftReference<Bitmap>(bitmap));
-			}
-
+			mCache.put(file, bitmap);
 			return bitmap;
 		}
 
@@ -404,17 +401,20 @@ public class ImageManager implements ImageCache {
 	}
 
 	public void clear() {
+		// 旧版本保存在files目录中的图片
 		String[] files = mContext.fileList();
 
 		for (String file : files) {
 			mContext.deleteFile(file);
 		}
 
-		synchronized (this) {
-			mCache.clear();
-		}
+		mDiskCache.clear();
+		mCache.evictAll();
 	}
 
+	/**
+	 * 清理旧版本保存在files目录中的图片. 磁盘缓存按大小自行淘汰, 不需要清理
+	 */
 	public void cleanup(HashSet<String> keepers) {
 		String[] files = mContext.fileList();
 		HashSet<String> hashedUrls = new HashSet<String>();
@@ -471,6 +471,9 @@ public class ImageManager implements ImageCache {
 
 		// 3. Bitmap -> File
 		writeFile(filepath, bitmap, quality);
+		if (bitmap != null) {
+			bitmap.recycle();
+		}
 
 		// 4. Get resized Image File
 		String filePath = getMd5(targetFile.getPath());
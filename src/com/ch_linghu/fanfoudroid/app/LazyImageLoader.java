@@ -1,14 +1,14 @@
 package com.ch_linghu.fanfoudroid.app;
 
-import java.lang.Thread.State;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import android.graphics.Bitmap;
+import android.net.ConnectivityManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -16,6 +16,7 @@ import android.util.Log;
 
 import com.ch_linghu.fanfoudroid.TwitterApplication;
 import com.ch_linghu.fanfoudroid.http.HttpException;
+import com.ch_linghu.fanfoudroid.http.RequestPriority;
 
 public class LazyImageLoader {
 	private static final String TAG = "ProfileImageCacheManager";
@@ -23,12 +24,26 @@ public class LazyImageLoader {
 	public static final String EXTRA_BITMAP = "extra_bitmap";
 	public static final String EXTRA_IMAGE_URL = "extra_image_url";
 
+	// 等待下载的URL数上限, 超过时丢弃最早的请求
+	private static final int MAX_QUEUE_SIZE = 50;
+	// 各网络类型下的下载线程数
+	private static final int WIFI_CONCURRENCY = 4;
+	private static final int MOBILE_CONCURRENCY = 2;
+
 	private ImageManager mImageManager = new ImageManager(
 			TwitterApplication.mContext);
-	private BlockingQueue<String> mUrlList = new ArrayBlockingQueue<String>(50);
 	private CallbackManager mCallbackManager = new CallbackManager();
 
-	private GetImageTask mTask = new GetImageTask();
+	// 等待下载的URL, 以自身为锁. 后进先出, 快速滑动后最后显示的行最先加载
+	private final LinkedList<String> mUrlList = new LinkedList<String>();
+	// 排队中或下载中的URL, 用于去重
+	private final ConcurrentHashMap<String, Boolean> mPendingUrls = new ConcurrentHashMap<String, Boolean>();
+	// 以mUrlList为锁
+	private final List<GetImageTask> mWorkers = new ArrayList<GetImageTask>();
+	// 正在等待URL的线程数, 以mUrlList为锁
+	private int mIdleWorkers = 0;
+	// 0表示根据网络类型决定
+	private volatile int mConcurrency = 0;
 
 	/**
 	 * 取图片, 可能直接从cache中返回, 或下载图片后返回
@@ -38,39 +53,123 @@ public class LazyImageLoader {
 	 * @return
 	 */
 	public Bitmap get(String url, ImageLoaderCallback callback) {
-		Bitmap bitmap = ImageCache.mDefaultBitmap;
-		if (mImageManager.isContains(url)) {
-			bitmap = mImageManager.get(url);
-		} else {
-			// bitmap不存在，启动Task进行下载
+		Bitmap bitmap = mImageManager.getFromMemory(url);
+		if (null == bitmap) {
+			// bitmap不在内存中，启动Task从文件读取或下载
+			bitmap = ImageCache.mDefaultBitmap;
 			mCallbackManager.put(url, callback);
 			startDownloadThread(url);
 		}
 		return bitmap;
 	}
 
+	/**
+	 * 设置同时下载的线程数
+	 * 
+	 * @param concurrency
+	 *            0表示根据TwitterApplication.networkType决定
+	 */
+	public void setConcurrency(int concurrency) {
+		mConcurrency = Math.max(0, concurrency);
+	}
+
+	public int getConcurrency() {
+		int concurrency = mConcurrency;
+		if (concurrency > 0) {
+			return concurrency;
+		}
+		return (ConnectivityManager.TYPE_WIFI == TwitterApplication.networkType) ? WIFI_CONCURRENCY
+				: MOBILE_CONCURRENCY;
+	}
+
 	private void startDownloadThread(String url) {
 		if (url != null) {
 			addUrlToDownloadQueue(url);
 		}
+	}
 
-		// Start Thread
-		State state = mTask.getState();
-		if (Thread.State.NEW == state) {
-			mTask.start(); // first start
-		} else if (Thread.State.TERMINATED == state) {
-			mTask = new GetImageTask(); // restart
-			mTask.start();
+	/**
+	 * 取消url的下载请求, 只在没有其他回调仍需要该图片且尚未开始下载时生效. 只能在UI线程上调用.
+	 * 
+	 * @see ViewBoundCallback
+	 */
+	public void cancel(String url) {
+		if (!mCallbackManager.removeStale(url)) {
+			return;
+		}
+		synchronized (mUrlList) {
+			if (mUrlList.remove(url)) {
+				mPendingUrls.remove(url);
+				Log.v(TAG, "Cancel " + url);
+			}
 		}
 	}
 
 	private void addUrlToDownloadQueue(String url) {
-		if (!mUrlList.contains(url)) {
-			try {
-				mUrlList.put(url);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		if (null != mPendingUrls.putIfAbsent(url, Boolean.TRUE)) {
+			// 已在排队或下载中, 回调会在完成时一并调用.
+			// 仍在排队时移到队首, 因为它又被显示了
+			synchronized (mUrlList) {
+				if (mUrlList.remove(url)) {
+					mUrlList.addLast(url);
+				}
+			}
+			return;
+		}
+
+		String dropped = null;
+		synchronized (mUrlList) {
+			mUrlList.addLast(url);
+			if (mUrlList.size() > MAX_QUEUE_SIZE) {
+				dropped = mUrlList.removeFirst();
+			}
+			mUrlList.notify();
+
+			// 按需启动下载线程, 空闲的线程会自行退出
+			if (mIdleWorkers < mUrlList.size()
+					&& mWorkers.size() < getConcurrency()) {
+				GetImageTask task = new GetImageTask();
+				mWorkers.add(task);
+				task.start();
+			}
+		}
+
+		if (null != dropped) {
+			Log.v(TAG, "Download queue full, drop " + dropped);
+			mPendingUrls.remove(dropped);
+			mCallbackManager.remove(dropped);
+		}
+	}
+
+	/**
+	 * @return 等待timeout秒后仍无URL时返回null
+	 */
+	private String takeUrl(GetImageTask task, long timeout)
+			throws InterruptedException {
+		synchronized (mUrlList) {
+			long deadline = System.currentTimeMillis()
+					+ TimeUnit.SECONDS.toMillis(timeout);
+			while (true) {
+				if (mWorkers.size() > getConcurrency()) {
+					// 线程数多于当前网络所需(如从WIFI切换到移动网络), 退出
+					mWorkers.remove(task);
+					return null;
+				}
+				if (!mUrlList.isEmpty()) {
+					return mUrlList.removeLast();
+				}
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					// 空闲超时, 退出
+					mWorkers.remove(task);
+					return null;
+				}
+				mIdleWorkers++;
+				try {
+					mUrlList.wait(wait);
+				} finally {
+					mIdleWorkers--;
+				}
 			}
 		}
 	}
@@ -81,57 +180,46 @@ public class LazyImageLoader {
 	}
 
 	private class GetImageTask extends Thread {
-		private volatile boolean mTaskTerminated = false;
 		private static final int TIMEOUT = 3 * 60;
-		private boolean isPermanent = true;
 
 		@Override
 		public void run() {
+			// 头像是正在显示的内容, 但应让位于用户操作
+			RequestPriority.setCurrent(RequestPriority.VISIBLE);
 			try {
-				while (!mTaskTerminated) {
-					String url;
-					if (isPermanent) {
-						url = mUrlList.take();
-					} else {
-						url = mUrlList.poll(TIMEOUT, TimeUnit.SECONDS); // waiting
-						if (null == url) {
-							break;
-						} // no more, shutdown
-					}
-
-					// Bitmap bitmap = ImageCache.mDefaultBitmap;
-					final Bitmap bitmap = mImageManager.safeGet(url);
-
-					// use handler to process callback
-					final Message m = handler.obtainMessage(HANDLER_MESSAGE_ID);
-					Bundle bundle = m.getData();
-					bundle.putString(EXTRA_IMAGE_URL, url);
-					bundle.putParcelable(EXTRA_BITMAP, bitmap);
-					handler.sendMessage(m);
+				String url;
+				while (null != (url = takeUrl(this, TIMEOUT))) {
+					fetch(url);
 				}
-			} catch (HttpException ioe) {
-				Log.e(TAG, "Get Image failed, " + ioe.getMessage());
 			} catch (InterruptedException e) {
 				Log.w(TAG, e.getMessage());
+				synchronized (mUrlList) {
+					mWorkers.remove(this);
+				}
 			} finally {
 				Log.v(TAG, "Get image task terminated.");
-				mTaskTerminated = true;
 			}
 		}
 
-		@SuppressWarnings("unused")
-		public boolean isPermanent() {
-			return isPermanent;
-		}
-
-		@SuppressWarnings("unused")
-		public void setPermanent(boolean isPermanent) {
-			this.isPermanent = isPermanent;
-		}
+		// 单个URL失败不影响线程和其他URL
+		private void fetch(String url) {
+			Bitmap bitmap = null;
+			try {
+				bitmap = mImageManager.safeGet(url);
+			} catch (HttpException ioe) {
+				Log.e(TAG, "Get Image failed, " + ioe.getMessage());
+			} catch (RuntimeException e) {
+				Log.e(TAG, "Get Image failed, " + url, e);
+			} finally {
+				mPendingUrls.remove(url);
+			}
 
-		@SuppressWarnings("unused")
-		public void shutDown() throws InterruptedException {
-			mTaskTerminated = true;
+			// use handler to process callback, bitmap为null表示失败
+			final Message m = handler.obtainMessage(HANDLER_MESSAGE_ID);
+			Bundle bundle = m.getData();
+			bundle.putString(EXTRA_IMAGE_URL, url);
+			bundle.putParcelable(EXTRA_BITMAP, bitmap);
+			handler.sendMessage(m);
 		}
 	}
 
@@ -144,8 +232,13 @@ public class LazyImageLoader {
 				String url = bundle.getString(EXTRA_IMAGE_URL);
 				Bitmap bitmap = (Bitmap) (bundle.get(EXTRA_BITMAP));
 
-				// callback
-				mCallbackManager.call(url, bitmap);
+				if (null == bitmap) {
+					// 下载失败, 下次显示时重试
+					mCallbackManager.remove(url);
+				} else {
+					// callback
+					mCallbackManager.call(url, bitmap);
+				}
 				break;
 			default:
 				// do nothing.
@@ -157,6 +250,16 @@ public class LazyImageLoader {
 		void refresh(String url, Bitmap bitmap);
 	}
 
+	/**
+	 * 为列表中某个View取图片的回调. View被复用显示其他URL后, 旧URL的请求可以取消
+	 */
+	public interface ViewBoundCallback extends ImageLoaderCallback {
+		/**
+		 * @return View是否仍在显示url
+		 */
+		boolean isBoundTo(String url);
+	}
+
 	public static class CallbackManager {
 		private static final String TAG = "CallbackManager";
 		private ConcurrentHashMap<String, List<ImageLoaderCallback>> mCallbackMap;
@@ -174,7 +277,12 @@ public class LazyImageLoader {
 				// ArrayList<ImageLoaderCallback>()));
 			}
 
-			mCallbackMap.get(url).add(callback);
+			List<ImageLoaderCallback> callbackList = mCallbackMap.get(url);
+			if (callbackList.contains(callback)) {
+				// 同一View重复绑定同一URL
+				return;
+			}
+			callbackList.add(callback);
 			Log.v(TAG,
 					"Add callback to list, count(url)="
 							+ mCallbackMap.get(url).size());
@@ -198,5 +306,37 @@ public class LazyImageLoader {
 			mCallbackMap.remove(url);
 		}
 
+		/**
+		 * 移除View已被复用的回调
+		 * 
+		 * @return url是否已没有任何回调
+		 */
+		public boolean removeStale(String url) {
+			List<ImageLoaderCallback> callbackList = mCallbackMap.get(url);
+			if (callbackList == null) {
+				return true;
+			}
+			Iterator<ImageLoaderCallback> it = callbackList.iterator();
+			while (it.hasNext()) {
+				ImageLoaderCallback callback = it.next();
+				if (callback instanceof ViewBoundCallback
+						&& !((ViewBoundCallback) callback).isBoundTo(url)) {
+					it.remove();
+				}
+			}
+			if (callbackList.isEmpty()) {
+				mCallbackMap.remove(url);
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * 丢弃url的所有回调, 如请求被取消或下载失败时
+		 */
+		public void remove(String url) {
+			mCallbackMap.remove(url);
+		}
+
 	}
 }
@@ -5,24 +5,57 @@ import android.widget.ImageView;
 
 import com.ch_linghu.fanfoudroid.TwitterApplication;
 import com.ch_linghu.fanfoudroid.app.LazyImageLoader.ImageLoaderCallback;
+import com.ch_linghu.fanfoudroid.app.LazyImageLoader.ViewBoundCallback;
 
 public class SimpleImageLoader {
 
 	public static void display(final ImageView imageView, String url) {
+		Object previous = imageView.getTag();
 		imageView.setTag(url);
+		if (previous instanceof String && !previous.equals(url)) {
+			// 列表行被复用, 旧图片若已没有View在等待则取消其下载
+			TwitterApplication.mImageLoader.cancel((String) previous);
+		}
 		imageView.setImageBitmap(TwitterApplication.mImageLoader.get(url,
 				createImageViewCallback(imageView, url)));
 	}
 
 	public static ImageLoaderCallback createImageViewCallback(
 			final ImageView imageView, String url) {
-		return new ImageLoaderCallback() {
-			@Override
-			public void refresh(String url, Bitmap bitmap) {
-				if (url.equals(imageView.getTag())) {
-					imageView.setImageBitmap(bitmap);
-				}
+		return new ImageViewCallback(imageView);
+	}
+
+	/**
+	 * 以ImageView的tag判断是否仍显示该URL, 同一ImageView的回调相等
+	 */
+	private static class ImageViewCallback implements ViewBoundCallback {
+		private final ImageView mImageView;
+
+		ImageViewCallback(ImageView imageView) {
+			mImageView = imageView;
+		}
+
+		@Override
+		public void refresh(String url, Bitmap bitmap) {
+			if (isBoundTo(url)) {
+				mImageView.setImageBitmap(bitmap);
 			}
-		};
+		}
+
+		@Override
+		public boolean isBoundTo(String url) {
+			return url.equals(mImageView.getTag());
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return (o instanceof ImageViewCallback)
+					&& ((ImageViewCallback) o).mImageView == mImageView;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(mImageView);
+		}
 	}
 }
@@ -1,12 +1,15 @@
 package com.ch_linghu.fanfoudroid.dao;
 
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
 /**
  * Database Helper
@@ -24,6 +27,16 @@ public class SQLiteTemplate {
 	 */
 	protected SQLiteOpenHelper mDatabaseOpenHelper;
 
+	/**
+	 * 已编译的语句, 以SQL文本为key. 只在持有this锁时使用
+	 */
+	private final HashMap<String, SQLiteStatement> mStatements = new HashMap<String, SQLiteStatement>();
+
+	/**
+	 * 编译mStatements中语句的数据库连接
+	 */
+	private SQLiteDatabase mStatementsDb;
+
 	/**
 	 * Construct
 	 * 
@@ -180,6 +193,119 @@ public class SQLiteTemplate {
 		return list;
 	}
 
+	/**
+	 * 批量执行同一条INSERT/UPDATE/DELETE语句, 按位置绑定参数
+	 * 
+	 * 语句只编译一次并被缓存, 所有行在同一个事务中执行
+	 * 
+	 * @param sql
+	 * @param batchArgs
+	 *            每行的参数, 见{@link #bindArgs(SQLiteStatement, Object[])}
+	 * @return 改变了数据的行数
+	 */
+	public int batchUpdate(String sql, List<Object[]> batchArgs) {
+		return batchUpdate(sql, batchArgs, new StatementBinder<Object[]>() {
+			@Override
+			public void bind(SQLiteStatement statement, Object[] args) {
+				bindArgs(statement, args);
+			}
+		});
+	}
+
+	/**
+	 * 批量执行同一条INSERT/UPDATE/DELETE语句, 由binder将每个对象按位置绑定到语句上
+	 * 
+	 * @param <T>
+	 * @param sql
+	 * @param items
+	 * @param binder
+	 * @return 改变了数据的行数, 如INSERT OR IGNORE中被忽略的行不计入
+	 */
+	public synchronized <T> int batchUpdate(String sql, List<T> items,
+			StatementBinder<T> binder) {
+		if (null == items || items.isEmpty()) {
+			return 0;
+		}
+
+		SQLiteDatabase db = getDb(true);
+		SQLiteStatement statement = compileStatement(db, sql);
+		int result = 0;
+		try {
+			db.beginTransaction();
+			for (T item : items) {
+				statement.clearBindings();
+				binder.bind(statement, item);
+				// 没有改变任何行时返回-1
+				if (-1 != statement.executeInsert()) {
+					++result;
+				}
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		return result;
+	}
+
+	/**
+	 * 从缓存中取出已编译的语句, 数据库连接变化后重新编译
+	 */
+	private SQLiteStatement compileStatement(SQLiteDatabase db, String sql) {
+		if (db != mStatementsDb) {
+			clearStatements();
+			mStatementsDb = db;
+		}
+		SQLiteStatement statement = mStatements.get(sql);
+		if (null == statement) {
+			statement = db.compileStatement(sql);
+			mStatements.put(sql, statement);
+		}
+		return statement;
+	}
+
+	/**
+	 * 释放缓存的语句, 关闭数据库前调用
+	 */
+	public synchronized void clearStatements() {
+		for (SQLiteStatement statement : mStatements.values()) {
+			statement.close();
+		}
+		mStatements.clear();
+		mStatementsDb = null;
+	}
+
+	/**
+	 * 按位置绑定参数, 下标从1开始
+	 * 
+	 * <li>null -> NULL</li> <li>Boolean -> 1/0</li> <li>Date -> epoch millis</li>
+	 * <li>Float/Double -> REAL</li> <li>其他Number -> INTEGER</li> <li>byte[] ->
+	 * BLOB</li> <li>其他 -> toString()</li>
+	 * 
+	 * @param statement
+	 * @param args
+	 */
+	public static void bindArgs(SQLiteStatement statement, Object[] args) {
+		for (int i = 0; i < args.length; i++) {
+			Object arg = args[i];
+			int index = i + 1;
+			if (null == arg) {
+				statement.bindNull(index);
+			} else if (arg instanceof Boolean) {
+				statement.bindLong(index, ((Boolean) arg) ? 1 : 0);
+			} else if (arg instanceof Date) {
+				statement.bindLong(index, ((Date) arg).getTime());
+			} else if (arg instanceof Float || arg instanceof Double) {
+				statement.bindDouble(index, ((Number) arg).doubleValue());
+			} else if (arg instanceof Number) {
+				statement.bindLong(index, ((Number) arg).longValue());
+			} else if (arg instanceof byte[]) {
+				statement.bindBlob(index, (byte[]) arg);
+			} else {
+				statement.bindString(index, arg.toString());
+			}
+		}
+	}
+
 	/**
 	 * Get Primary Key
 	 * 
@@ -225,4 +351,14 @@ public class SQLiteTemplate {
 		public T mapRow(Cursor cursor, int rowNum);
 	}
 
+	/**
+	 * Some as Spring JDBC BatchPreparedStatementSetter, 将一个对象绑定到语句上
+	 * 
+	 * @see SQLiteTemplate#batchUpdate(String, List, StatementBinder)
+	 * @param <T>
+	 */
+	public interface StatementBinder<T> {
+		public void bind(SQLiteStatement statement, T item);
+	}
+
 }
@@ -0,0 +1,67 @@
+package com.ch_linghu.fanfoudroid.db;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * 版本4: created_at由 "yyyy-MM-dd'T'HH:mm:ss.SSS" 格式的文本改为epoch millis
+ * 
+ * 原有的列声明为date(NUMERIC), 可以直接保存整数, 因此只需逐行转换, 无需重建表.
+ * 文本是按设备时区格式化的, 这里用同样的格式和时区解析.
+ */
+class CreatedAtMillisMigration extends Migration {
+	private static final String TAG = "CreatedAtMillisMigration";
+
+	private static final String[] TABLES = new String[] {
+			StatusTable.TABLE_NAME, MessageTable.TABLE_NAME,
+			FollowTable.TABLE_NAME, UserInfoTable.TABLE_NAME };
+
+	private static final String CREATED_AT = "created_at";
+
+	CreatedAtMillisMigration() {
+		super(4);
+	}
+
+	@Override
+	public void migrate(SQLiteDatabase db) {
+		DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS",
+				Locale.US);
+		for (String table : TABLES) {
+			convert(db, table, format);
+		}
+	}
+
+	private void convert(SQLiteDatabase db, String table, DateFormat format) {
+		SQLiteStatement update = db.compileStatement("UPDATE " + table
+				+ " SET " + CREATED_AT + " = ? WHERE rowid = ?");
+		Cursor cursor = db.rawQuery("SELECT rowid, " + CREATED_AT + " FROM "
+				+ table + " WHERE typeof(" + CREATED_AT + ") = 'text'", null);
+		int converted = 0;
+		try {
+			while (cursor.moveToNext()) {
+				long time;
+				try {
+					time = format.parse(cursor.getString(1)).getTime();
+				} catch (ParseException e) {
+					Log.w(TAG, "Invalid created at data: " + cursor.getString(1));
+					time = 0;
+				}
+				update.bindLong(1, time);
+				update.bindLong(2, cursor.getLong(0));
+				update.execute();
+				converted++;
+			}
+		} finally {
+			cursor.close();
+			update.close();
+		}
+		Log.d(TAG, "Converted " + converted + " rows in " + table);
+	}
+}
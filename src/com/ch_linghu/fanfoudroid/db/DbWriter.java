@@ -0,0 +1,360 @@
+package com.ch_linghu.fanfoudroid.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+/**
+ * 数据库的单一写线程
+ * 
+ * 所有写操作交给同一个线程按提交顺序执行, 在短时间内(WINDOW_MS)相继到达的写操作合并到
+ * 一个事务中提交(group commit), 以减少fsync次数和线程间对数据库锁的争用, UI线程也不必
+ * 等待写入完成.
+ * 
+ * 合并提交的事务中某个操作失败时, 整个事务回滚, 其余操作再各自单独提交一次, 因此一个
+ * 操作的失败不会影响其他操作. 写操作只应修改数据库, 因为它可能被执行不止一次.
+ */
+public class DbWriter {
+	private static final String TAG = "DbWriter";
+
+	/** 第一个操作到达后, 最多等待多久以合并后续的操作 */
+	public static final long WINDOW_MS = 10;
+
+	/** 一个事务中最多合并的操作数 */
+	public static final int MAX_GROUP_SIZE = 32;
+
+	/**
+	 * 一次写操作, 在写线程上执行, 已处于事务中
+	 * 
+	 * @param <T>
+	 */
+	public interface Operation<T> {
+		T execute(SQLiteDatabase db);
+	}
+
+	/**
+	 * 写操作的结果, 在所在的事务提交之后才完成
+	 */
+	private static class WriteFuture<T> implements Future<T> {
+		private final Operation<T> mOperation;
+		private final CountDownLatch mDone = new CountDownLatch(1);
+		private T mResult;
+		private Throwable mError;
+		private boolean mStarted = false;
+		private boolean mCancelled = false;
+
+		WriteFuture(Operation<T> operation) {
+			mOperation = operation;
+		}
+
+		/**
+		 * @return 已被取消时返回false
+		 */
+		synchronized boolean start() {
+			if (mCancelled) {
+				return false;
+			}
+			mStarted = true;
+			return true;
+		}
+
+		T execute(SQLiteDatabase db) {
+			return mOperation.execute(db);
+		}
+
+		@SuppressWarnings("unchecked")
+		void set(Object result) {
+			mResult = (T) result;
+			mDone.countDown();
+		}
+
+		void setException(Throwable error) {
+			mError = error;
+			mDone.countDown();
+		}
+
+		@Override
+		public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+			if (mStarted || mCancelled) {
+				return false;
+			}
+			mCancelled = true;
+			mDone.countDown();
+			return true;
+		}
+
+		@Override
+		public synchronized boolean isCancelled() {
+			return mCancelled;
+		}
+
+		@Override
+		public boolean isDone() {
+			return 0 == mDone.getCount();
+		}
+
+		@Override
+		public T get() throws InterruptedException, ExecutionException {
+			mDone.await();
+			return getResult();
+		}
+
+		@Override
+		public T get(long timeout, TimeUnit unit) throws InterruptedException,
+				ExecutionException, TimeoutException {
+			if (!mDone.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return getResult();
+		}
+
+		private T getResult() throws ExecutionException {
+			if (isCancelled()) {
+				throw new CancellationException();
+			}
+			if (null != mError) {
+				throw new ExecutionException(mError);
+			}
+			return mResult;
+		}
+	}
+
+	private final SQLiteOpenHelper mOpenHelper;
+	private final LinkedBlockingQueue<WriteFuture<?>> mQueue = new LinkedBlockingQueue<WriteFuture<?>>();
+	private Thread mThread;
+	private Runnable mRollbackListener;
+	private Runnable mCommitListener;
+
+	private int mWriteCount = 0;
+	private int mCommitCount = 0;
+
+	public DbWriter(SQLiteOpenHelper openHelper) {
+		mOpenHelper = openHelper;
+	}
+
+	/**
+	 * 提交一次写操作, 立即返回
+	 * 
+	 * @param operation
+	 * @return 事务提交后完成的Future
+	 */
+	public <T> Future<T> submit(Operation<T> operation) {
+		WriteFuture<T> future = new WriteFuture<T>(operation);
+		ensureStarted();
+		mQueue.add(future);
+		return future;
+	}
+
+	/**
+	 * 提交一次写操作并等待其提交, 在写线程上调用时直接执行
+	 * 
+	 * @param operation
+	 * @return 写操作的返回值
+	 * @throws SQLException
+	 *             等待被中断
+	 */
+	public <T> T execute(Operation<T> operation) {
+		if (isWriterThread()) {
+			return operation.execute(mOpenHelper.getWritableDatabase());
+		}
+		try {
+			return submit(operation).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for write");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new SQLException(String.valueOf(cause));
+		}
+	}
+
+	/**
+	 * 设置事务回滚时(在写线程上)调用的listener, 用于丢弃随写操作一起修改的内存状态
+	 * 
+	 * @param listener
+	 */
+	public void setRollbackListener(Runnable listener) {
+		mRollbackListener = listener;
+	}
+
+	private void onRollback() {
+		Runnable listener = mRollbackListener;
+		if (null != listener) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * 设置事务提交后(在写线程上)调用的listener, 用于通知其他连接上的读者数据已改变
+	 * 
+	 * @param listener
+	 */
+	public void setCommitListener(Runnable listener) {
+		mCommitListener = listener;
+	}
+
+	private void onCommit() {
+		Runnable listener = mCommitListener;
+		if (null != listener) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * @return 当前线程是否为写线程
+	 */
+	public boolean isWriterThread() {
+		return Thread.currentThread() == mThread;
+	}
+
+	private synchronized void ensureStarted() {
+		if (null != mThread) {
+			return;
+		}
+		mThread = new Thread(TAG) {
+			@Override
+			public void run() {
+				loop();
+			}
+		};
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+
+	private void loop() {
+		List<WriteFuture<?>> group = new ArrayList<WriteFuture<?>>();
+		try {
+			while (true) {
+				group.clear();
+				group.add(mQueue.take());
+
+				long deadline = System.currentTimeMillis() + WINDOW_MS;
+				while (group.size() < MAX_GROUP_SIZE) {
+					long wait = deadline - System.currentTimeMillis();
+					WriteFuture<?> next = wait > 0 ? mQueue.poll(wait,
+							TimeUnit.MILLISECONDS) : mQueue.poll();
+					if (null == next) {
+						break;
+					}
+					group.add(next);
+				}
+
+				commit(group);
+			}
+		} catch (InterruptedException e) {
+			Log.w(TAG, "Writer thread interrupted");
+		}
+	}
+
+	/**
+	 * 在一个事务中执行一组写操作
+	 */
+	private void commit(List<WriteFuture<?>> group) {
+		List<WriteFuture<?>> started = new ArrayList<WriteFuture<?>>(
+				group.size());
+		for (WriteFuture<?> future : group) {
+			if (future.start()) {
+				started.add(future);
+			}
+		}
+		if (started.isEmpty()) {
+			return;
+		}
+
+		Object[] results = new Object[started.size()];
+		Throwable failure = null;
+		try {
+			SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+			db.beginTransaction();
+			try {
+				for (int i = 0; i < started.size(); i++) {
+					results[i] = started.get(i).execute(db);
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		} catch (Throwable e) {
+			failure = e;
+		}
+
+		if (null == failure) {
+			onCommit();
+			synchronized (this) {
+				mWriteCount += started.size();
+				mCommitCount++;
+			}
+			for (int i = 0; i < started.size(); i++) {
+				started.get(i).set(results[i]);
+			}
+		} else if (started.size() == 1) {
+			Log.e(TAG, "Write failed", failure);
+			onRollback();
+			started.get(0).setException(failure);
+		} else {
+			// 事务已回滚, 逐个重新提交以找出失败的操作
+			Log.w(TAG, "Group of " + started.size()
+					+ " writes failed, retrying one by one", failure);
+			onRollback();
+			for (WriteFuture<?> future : started) {
+				retry(future);
+			}
+		}
+	}
+
+	private void retry(WriteFuture<?> future) {
+		Object result = null;
+		try {
+			SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+			db.beginTransaction();
+			try {
+				result = future.execute(db);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		} catch (Throwable e) {
+			Log.e(TAG, "Write failed", e);
+			onRollback();
+			future.setException(e);
+			return;
+		}
+		onCommit();
+		synchronized (this) {
+			mWriteCount++;
+			mCommitCount++;
+		}
+		future.set(result);
+	}
+
+	/**
+	 * @return 已提交的写操作数
+	 */
+	public synchronized int getWriteCount() {
+		return mWriteCount;
+	}
+
+	/**
+	 * @return 已提交的事务数, 与getWriteCount()之比即合并的效果
+	 */
+	public synchronized int getCommitCount() {
+		return mCommitCount;
+	}
+}
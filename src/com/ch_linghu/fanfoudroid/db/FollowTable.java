@@ -1,6 +1,5 @@
 package com.ch_linghu.fanfoudroid.db;
 
-import java.text.ParseException;
 
 import android.database.Cursor;
 import android.provider.BaseColumns;
@@ -49,7 +48,7 @@ public final class FollowTable implements BaseColumns {
 			+ FIELD_FOLLOWERS_COUNT + " integer, " + FIELD_FRIENDS_COUNT
 			+ " integer, " + FIELD_FAVORITES_COUNT + " integer, "
 			+ FIELD_STATUSES_COUNT + " integer, " + FIELD_LAST_STATUS
-			+ " text, " + FIELD_CREATED_AT + " date, " + FIELD_FOLLOWING
+			+ " text, " + FIELD_CREATED_AT + " integer, " + FIELD_FOLLOWING
 			+ " boolean " + ")";
 
 	/**
@@ -98,13 +97,8 @@ public final class FollowTable implements BaseColumns {
 		user.isFollowing = (0 == cursor.getInt(cursor
 				.getColumnIndex(FollowTable.FIELD_FOLLOWING))) ? false : true;
 
-		try {
-			user.createdAt = TwitterDatabase.DB_DATE_FORMATTER.parse(cursor
-					.getString(cursor
-							.getColumnIndex(MessageTable.FIELD_CREATED_AT)));
-		} catch (ParseException e) {
-			Log.w(TAG, "Invalid created at data.");
-		}
+		user.createdAt = TwitterDatabase.getDate(cursor,
+				cursor.getColumnIndex(FIELD_CREATED_AT));
 
 		return user;
 	}
@@ -0,0 +1,23 @@
+package com.ch_linghu.fanfoudroid.db;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * 版本5: 为status和message表加入按时间线查询的索引
+ * 
+ * @see StatusTable#CREATE_TIMELINE_INDEX
+ * @see MessageTable#CREATE_SENT_INDEX
+ */
+class IndexMigration extends Migration {
+
+	IndexMigration() {
+		super(5);
+	}
+
+	@Override
+	public void migrate(SQLiteDatabase db) {
+		db.execSQL(StatusTable.CREATE_TIMELINE_INDEX);
+		db.execSQL(StatusTable.CREATE_UNREAD_INDEX);
+		db.execSQL(MessageTable.CREATE_SENT_INDEX);
+	}
+}
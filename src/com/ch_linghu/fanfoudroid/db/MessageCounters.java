@@ -0,0 +1,115 @@
+package com.ch_linghu.fanfoudroid.db;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 消息总数和未读数的内存缓存, 代替每次 SELECT COUNT(*)
+ * 
+ * 计数只在写线程上增减(与写入在同一个事务中), 因此与写线程看到的数据一致; 事务回滚
+ * 或在写线程之外修改数据时使相关计数失效, 下次读取时重新统计.
+ * 
+ * 每次修改以及每次写事务提交都会增加版本号, 加载计数期间若有修改, 加载的结果不会被缓存.
+ * 因此可以在只读连接上加载: 读到的若是提交之前的数据, 提交时版本号已经改变.
+ * 
+ * key由':'分隔的若干段组成(如"type:owner"), 按组失效时只匹配完整的段, "1:alice"不会
+ * 影响"1:alice2".
+ */
+final class MessageCounters {
+
+	static final char SEPARATOR = ':';
+
+	private final Map<String, int[]> mCounts = new HashMap<String, int[]>();
+	private long mVersion = 0;
+
+	/**
+	 * @param key
+	 * @return {总数, 未读数}, 未缓存时返回null
+	 */
+	synchronized int[] get(String key) {
+		int[] counts = mCounts.get(key);
+		return (null == counts) ? null : new int[] { counts[0], counts[1] };
+	}
+
+	synchronized long getVersion() {
+		return mVersion;
+	}
+
+	/**
+	 * 写事务提交后调用, 使提交之前开始的加载作废
+	 */
+	synchronized void onCommit() {
+		mVersion++;
+	}
+
+	/**
+	 * 缓存重新统计得到的计数
+	 * 
+	 * @param version
+	 *            开始统计前的版本号
+	 * @return 统计期间有修改时返回false, 计数不被缓存
+	 */
+	synchronized boolean put(String key, long version, int total, int unread) {
+		if (version != mVersion) {
+			return false;
+		}
+		mCounts.put(key, new int[] { total, unread });
+		return true;
+	}
+
+	/**
+	 * 增减已缓存的计数, 未缓存时忽略
+	 */
+	synchronized void add(String key, int total, int unread) {
+		mVersion++;
+		int[] counts = mCounts.get(key);
+		if (null != counts) {
+			counts[0] += total;
+			counts[1] += unread;
+		}
+	}
+
+	/**
+	 * 将group中的计数的未读数置为0
+	 * 
+	 * @see #inGroup(String, String)
+	 */
+	synchronized void markRead(String group) {
+		mVersion++;
+		for (Map.Entry<String, int[]> entry : mCounts.entrySet()) {
+			if (inGroup(entry.getKey(), group)) {
+				entry.getValue()[1] = 0;
+			}
+		}
+	}
+
+	/**
+	 * 使group中的计数失效
+	 * 
+	 * @see #inGroup(String, String)
+	 */
+	synchronized void invalidate(String group) {
+		mVersion++;
+		Iterator<String> it = mCounts.keySet().iterator();
+		while (it.hasNext()) {
+			if (inGroup(it.next(), group)) {
+				it.remove();
+			}
+		}
+	}
+
+	synchronized void invalidateAll() {
+		mVersion++;
+		mCounts.clear();
+	}
+
+	/**
+	 * @return key等于group, 或以group加分隔符开头
+	 */
+	static boolean inGroup(String key, String group) {
+		return key.startsWith(group)
+				&& (key.length() == group.length() || key.charAt(group
+						.length()) == SEPARATOR);
+	}
+}
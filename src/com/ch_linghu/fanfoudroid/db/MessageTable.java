@@ -1,7 +1,5 @@
 package com.ch_linghu.fanfoudroid.db;
 
-import java.text.ParseException;
-
 import android.database.Cursor;
 import android.provider.BaseColumns;
 import android.util.Log;
@@ -42,9 +40,16 @@ public final class MessageTable implements BaseColumns {
 			+ FIELD_USER_SCREEN_NAME + " text not null, " + FIELD_TEXT
 			+ " text not null, " + FIELD_PROFILE_IMAGE_URL + " text not null, "
 			+ FIELD_IS_UNREAD + " boolean not null, " + FIELD_IS_SENT
-			+ " boolean not null, " + FIELD_CREATED_AT + " date not null, "
+			+ " boolean not null, " + FIELD_CREATED_AT + " integer not null, "
 			+ FIELD_USER_ID + " text)";
 
+	/**
+	 * 按是否已发送筛选并按created_at排序的查询使用此索引
+	 */
+	public static final String CREATE_SENT_INDEX = "CREATE INDEX IF NOT EXISTS "
+			+ "idx_message_sent ON " + TABLE_NAME + " (" + FIELD_IS_SENT + ","
+			+ FIELD_CREATED_AT + ")";
+
 	/**
 	 * TODO: 将游标解析为一条私信
 	 * 
@@ -70,13 +75,8 @@ public final class MessageTable implements BaseColumns {
 				.getColumnIndex(MessageTable.FIELD_PROFILE_IMAGE_URL));
 		dm.isSent = (0 == cursor.getInt(cursor
 				.getColumnIndex(MessageTable.FIELD_IS_SENT))) ? false : true;
-		try {
-			dm.createdAt = TwitterDatabase.DB_DATE_FORMATTER.parse(cursor
-					.getString(cursor
-							.getColumnIndex(MessageTable.FIELD_CREATED_AT)));
-		} catch (ParseException e) {
-			Log.w(TAG, "Invalid created at data.");
-		}
+		dm.createdAt = TwitterDatabase.getDate(cursor,
+				cursor.getColumnIndex(MessageTable.FIELD_CREATED_AT));
 		dm.userId = cursor.getString(cursor
 				.getColumnIndex(MessageTable.FIELD_USER_ID));
 
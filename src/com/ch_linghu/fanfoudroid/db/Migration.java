@@ -0,0 +1,31 @@
+package com.ch_linghu.fanfoudroid.db;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * 数据库结构的一次升级, 将数据库从 version - 1 升级到 version
+ * 
+ * @see SchemaMigrator
+ */
+public abstract class Migration {
+	private final int mVersion;
+
+	/**
+	 * @param version
+	 *            升级后的版本号
+	 */
+	protected Migration(int version) {
+		mVersion = version;
+	}
+
+	public int getVersion() {
+		return mVersion;
+	}
+
+	/**
+	 * 执行升级, 已处于SQLiteOpenHelper#onUpgrade()的事务中, 出错时抛出异常即可回滚
+	 * 
+	 * @param db
+	 */
+	public abstract void migrate(SQLiteDatabase db);
+}
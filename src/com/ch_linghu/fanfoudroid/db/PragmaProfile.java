@@ -0,0 +1,88 @@
+package com.ch_linghu.fanfoudroid.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * 打开数据库时设置的PRAGMA
+ * 
+ * <li>journal_mode=WAL: 读不阻塞写, 写也不阻塞读. 需要SQLite 3.7(Android 3.0)以上,
+ * 否则保持默认的回滚日志</li> <li>synchronous=NORMAL: WAL模式下只在checkpoint时fsync,
+ * 断电最多丢失最后几个事务, 不会损坏数据库</li> <li>page_size: 只对新建的数据库有效</li>
+ * <li>cache_size: 以页为单位, 每个连接各自拥有</li>
+ */
+public class PragmaProfile {
+	private static final String TAG = "PragmaProfile";
+
+	/** 写连接: 4K页, 约1M缓存 */
+	public static final PragmaProfile WRITER = new PragmaProfile(4096, 256,
+			"NORMAL", true);
+
+	/** 只读连接: 缓存更大, 以容纳时间线的索引和最近的数据 */
+	public static final PragmaProfile READER = new PragmaProfile(4096, 512,
+			"NORMAL", false);
+
+	private final int mPageSize;
+	private final int mCacheSize;
+	private final String mSynchronous;
+	private final boolean mWal;
+
+	/**
+	 * @param pageSize
+	 *            页大小(字节)
+	 * @param cacheSize
+	 *            缓存的页数
+	 * @param synchronous
+	 *            OFF, NORMAL, FULL
+	 * @param wal
+	 *            是否尝试打开WAL
+	 */
+	public PragmaProfile(int pageSize, int cacheSize, String synchronous,
+			boolean wal) {
+		mPageSize = pageSize;
+		mCacheSize = cacheSize;
+		mSynchronous = synchronous;
+		mWal = wal;
+	}
+
+	/**
+	 * 在事务之外调用, 如SQLiteOpenHelper#onOpen()
+	 * 
+	 * @param db
+	 * @return 数据库是否处于WAL模式
+	 */
+	public boolean apply(SQLiteDatabase db) {
+		boolean wal = false;
+		try {
+			if (!db.isReadOnly()) {
+				db.execSQL("PRAGMA page_size = " + mPageSize);
+				if (mWal && Build.VERSION.SDK_INT >= 11) {
+					wal = "wal".equalsIgnoreCase(queryString(db,
+							"PRAGMA journal_mode = WAL"));
+				}
+			} else {
+				wal = "wal".equalsIgnoreCase(queryString(db,
+						"PRAGMA journal_mode"));
+			}
+			db.execSQL("PRAGMA cache_size = " + mCacheSize);
+			db.execSQL("PRAGMA synchronous = " + mSynchronous);
+		} catch (SQLiteException e) {
+			// PRAGMA只影响性能, 失败时使用默认设置
+			Log.w(TAG, "Unable to apply pragmas", e);
+		}
+		Log.d(TAG, "journal_mode " + (wal ? "WAL" : "default"));
+		return wal;
+	}
+
+	private static String queryString(SQLiteDatabase db, String sql) {
+		Cursor cursor = db.rawQuery(sql, null);
+		try {
+			return cursor.moveToFirst() ? cursor.getString(0) : null;
+		} finally {
+			cursor.close();
+		}
+	}
+}
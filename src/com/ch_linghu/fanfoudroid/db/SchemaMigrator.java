@@ -0,0 +1,66 @@
+package com.ch_linghu.fanfoudroid.db;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * 按版本号依次执行Migration, 升级数据库时保留原有的数据
+ * 
+ * <pre>
+ * SchemaMigrator migrator = new SchemaMigrator().add(new CreatedAtMillisMigration());
+ * if (migrator.canMigrate(oldVersion, newVersion)) {
+ * 	migrator.migrate(db, oldVersion, newVersion);
+ * }
+ * </pre>
+ */
+public class SchemaMigrator {
+	private static final String TAG = "SchemaMigrator";
+
+	private final SortedMap<Integer, Migration> mMigrations = new TreeMap<Integer, Migration>();
+
+	public SchemaMigrator add(Migration migration) {
+		mMigrations.put(migration.getVersion(), migration);
+		return this;
+	}
+
+	/**
+	 * @param oldVersion
+	 * @param newVersion
+	 * @return 从oldVersion到newVersion的每一步是否都有对应的Migration
+	 */
+	public boolean canMigrate(int oldVersion, int newVersion) {
+		if (oldVersion >= newVersion) {
+			return false;
+		}
+		for (int version = oldVersion + 1; version <= newVersion; version++) {
+			if (!mMigrations.containsKey(version)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 依次执行 (oldVersion, newVersion] 之间的Migration
+	 * 
+	 * @param db
+	 * @param oldVersion
+	 * @param newVersion
+	 * @throws IllegalStateException
+	 *             缺少某一步的Migration
+	 */
+	public void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+		if (!canMigrate(oldVersion, newVersion)) {
+			throw new IllegalStateException("No migration path from "
+					+ oldVersion + " to " + newVersion);
+		}
+		for (Migration migration : mMigrations.subMap(oldVersion + 1,
+				newVersion + 1).values()) {
+			Log.d(TAG, "Migrate database to version " + migration.getVersion());
+			migration.migrate(db);
+		}
+	}
+}
@@ -5,7 +5,6 @@ import android.provider.BaseColumns;
 import android.util.Log;
 
 import com.ch_linghu.fanfoudroid.data.Tweet;
-import com.ch_linghu.fanfoudroid.util.DateTimeHelper;
 
 /**
  * Table - Statuses <br />
@@ -82,7 +81,7 @@ public final class StatusTable implements BaseColumns {
 			+ USER_SCREEN_NAME + " text not null, " + TEXT + " text not null, "
 			+ PROFILE_IMAGE_URL + " text not null, " + IS_UNREAD
 			+ " boolean not null, " + CREATED_AT
-			+ " date not null, "
+			+ " integer not null, "
 			+ SOURCE
 			+ " text not null, "
 			+ FAVORITED
@@ -95,6 +94,22 @@ public final class StatusTable implements BaseColumns {
 			+ TRUNCATED + " boolean ," + "PRIMARY KEY (" + _ID + "," + OWNER_ID
 			+ "," + STATUS_TYPE + "))";
 
+	/**
+	 * 时间线索引, 覆盖按owner+status_type筛选并按created_at排序的查询
+	 * (fetchAllTweets, fetchMaxTweetId, fetchMinTweetId, gc),
+	 * 包含_id使取最新/最旧ID时无需回表
+	 */
+	public static final String CREATE_TIMELINE_INDEX = "CREATE INDEX IF NOT EXISTS "
+			+ "idx_status_timeline ON " + TABLE_NAME + " (" + OWNER_ID + ","
+			+ STATUS_TYPE + "," + CREATED_AT + "," + _ID + ")";
+
+	/**
+	 * 未读索引, 覆盖fetchUnreadCount等统计未读数的查询
+	 */
+	public static final String CREATE_UNREAD_INDEX = "CREATE INDEX IF NOT EXISTS "
+			+ "idx_status_unread ON " + TABLE_NAME + " (" + OWNER_ID + ","
+			+ STATUS_TYPE + "," + IS_UNREAD + ")";
+
 	/**
 	 * 将游标解析为一条Tweet
 	 * 
@@ -114,8 +129,8 @@ public final class StatusTable implements BaseColumns {
 
 		Tweet tweet = new Tweet();
 		tweet.id = cursor.getString(cursor.getColumnIndex(_ID));
-		tweet.createdAt = DateTimeHelper.parseDateTimeFromSqlite(cursor
-				.getString(cursor.getColumnIndex(CREATED_AT)));
+		tweet.createdAt = TwitterDatabase.getDate(cursor,
+				cursor.getColumnIndex(CREATED_AT));
 		tweet.favorited = cursor.getString(cursor.getColumnIndex(FAVORITED));
 		tweet.screenName = cursor.getString(cursor
 				.getColumnIndex(USER_SCREEN_NAME));
@@ -1,28 +1,46 @@
 package com.ch_linghu.fanfoudroid.db;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Future;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.text.TextUtils;
 import android.util.Log;
 
 import com.ch_linghu.fanfoudroid.TwitterApplication;
 import com.ch_linghu.fanfoudroid.app.Preferences;
+import com.ch_linghu.fanfoudroid.dao.SQLiteTemplate;
+import com.ch_linghu.fanfoudroid.dao.SQLiteTemplate.StatementBinder;
 import com.ch_linghu.fanfoudroid.dao.StatusDAO;
 import com.ch_linghu.fanfoudroid.data.Dm;
 import com.ch_linghu.fanfoudroid.data.Tweet;
+import com.ch_linghu.fanfoudroid.db.DbWriter.Operation;
 import com.ch_linghu.fanfoudroid.fanfou.Status;
 import com.ch_linghu.fanfoudroid.util.DebugTimer;
+import com.ch_linghu.fanfoudroid.util.IdSet;
 
 /**
  * A Database which contains all statuses and direct-messages, use
@@ -34,10 +52,25 @@ public class TwitterDatabase {
 	private static final String TAG = "TwitterDatabase";
 
 	private static final String DATABASE_NAME = "status_db";
-	private static final int DATABASE_VERSION = 3;
+	private static final int DATABASE_VERSION = 5;
 
 	private static TwitterDatabase instance = null;
 	private static DatabaseHelper mOpenHelper = null;
+	private static SQLiteTemplate mSqlTemplate = null;
+	private static DbWriter mWriter = null;
+	private static SQLiteDatabase mReadDb = null;
+	private static final MessageCounters mCounters = new MessageCounters();
+	private static final String DM_COUNTER = "dm";
+	private static final Watermarks mWatermarks = new Watermarks();
+	// 用户ID -> 最近一次同步写入的用户内容的散列, 内容未变的用户不再重写
+	private static final Map<String, Integer> mUserHashes = Collections
+			.synchronizedMap(new HashMap<String, Integer>());
+	// Followers表中ID的缓存, 只在写线程上加载和替换, null表示未加载
+	private static volatile IdSet mFollowerIds = null;
+	// 我关注的用户ID, 以IdSet#toBytes()格式保存在FRIEND_IDS_FILE中
+	private static IdSet mFriendIds = null;
+	private static final String IDS_DIR = "ids";
+	private static final String FRIEND_IDS_FILE = "friends";
 	private Context mContext = null;
 
 	/**
@@ -46,6 +79,12 @@ public class TwitterDatabase {
 	 */
 	private static class DatabaseHelper extends SQLiteOpenHelper {
 
+		private volatile boolean mWal = false;
+
+		// 每次修改表结构时增加DATABASE_VERSION, 并在此加入对应的Migration
+		private static final SchemaMigrator MIGRATOR = new SchemaMigrator()
+				.add(new CreatedAtMillisMigration()).add(new IndexMigration());
+
 		// Construct
 		public DatabaseHelper(Context context, String name,
 				CursorFactory factory, int version) {
@@ -78,6 +117,10 @@ public class TwitterDatabase {
 
 			// 2011.03.01 add beta
 			db.execSQL(UserInfoTable.CREATE_TABLE);
+
+			db.execSQL(StatusTable.CREATE_TIMELINE_INDEX);
+			db.execSQL(StatusTable.CREATE_UNREAD_INDEX);
+			db.execSQL(MessageTable.CREATE_SENT_INDEX);
 		}
 
 		@Override
@@ -90,12 +133,27 @@ public class TwitterDatabase {
 		public void onOpen(SQLiteDatabase db) {
 			Log.d(TAG, "Open Database.");
 			super.onOpen(db);
+			mWal = PragmaProfile.WRITER.apply(db);
+		}
+
+		/**
+		 * @return 数据库是否处于WAL模式
+		 */
+		public boolean isWal() {
+			return mWal;
 		}
 
 		@Override
 		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-			Log.d(TAG, "Upgrade Database.");
-			dropAllTables(db);
+			Log.d(TAG, "Upgrade Database from " + oldVersion + " to "
+					+ newVersion);
+			if (MIGRATOR.canMigrate(oldVersion, newVersion)) {
+				MIGRATOR.migrate(db, oldVersion, newVersion);
+			} else {
+				// 太旧的版本无法升级, 只能重建
+				dropAllTables(db);
+				onCreate(db);
+			}
 		}
 
 		private void dropAllTables(SQLiteDatabase db) {
@@ -111,6 +169,24 @@ public class TwitterDatabase {
 	private TwitterDatabase(Context context) {
 		mContext = context;
 		mOpenHelper = new DatabaseHelper(context);
+		mSqlTemplate = new SQLiteTemplate(mOpenHelper);
+		mWriter = new DbWriter(mOpenHelper);
+		mWriter.setRollbackListener(new Runnable() {
+			@Override
+			public void run() {
+				mCounters.invalidateAll();
+				mWatermarks.invalidateAll();
+				mUserHashes.clear();
+				mFollowerIds = null;
+			}
+		});
+		mWriter.setCommitListener(new Runnable() {
+			@Override
+			public void run() {
+				mCounters.onCommit();
+				mWatermarks.onCommit();
+			}
+		});
 	}
 
 	public static synchronized TwitterDatabase getInstance(Context context) {
@@ -129,30 +205,93 @@ public class TwitterDatabase {
 		if (writeable) {
 			return mOpenHelper.getWritableDatabase();
 		} else {
-			return mOpenHelper.getReadableDatabase();
+			return getReadDb();
 		}
 	}
 
+	/**
+	 * 读数据用的连接
+	 * 
+	 * WAL模式下是一个单独的只读连接, UI线程上的查询不会被后台写入的事务阻塞. 不支持WAL时,
+	 * 以及在写线程上(需要读到当前事务中尚未提交的数据)与写共用同一个连接.
+	 */
+	public static synchronized SQLiteDatabase getReadDb() {
+		SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+		if (!mOpenHelper.isWal() || mWriter.isWriterThread()) {
+			return db;
+		}
+		if (null == mReadDb || !mReadDb.isOpen()) {
+			try {
+				mReadDb = SQLiteDatabase.openDatabase(db.getPath(), null,
+						SQLiteDatabase.OPEN_READONLY);
+				PragmaProfile.READER.apply(mReadDb);
+			} catch (SQLiteException e) {
+				Log.w(TAG, "Unable to open read connection", e);
+				mReadDb = null;
+				return db;
+			}
+		}
+		return mReadDb;
+	}
+
+	/**
+	 * 写操作都应交给此写线程执行
+	 */
+	public DbWriter getWriter() {
+		return mWriter;
+	}
+
+	/**
+	 * 在写线程上执行SQLiteTemplate#batchUpdate()
+	 */
+	private static <T> int batchUpdate(final String sql, final List<T> items,
+			final StatementBinder<T> binder) {
+		return mWriter.execute(new Operation<Integer>() {
+			@Override
+			public Integer execute(SQLiteDatabase db) {
+				return mSqlTemplate.batchUpdate(sql, items, binder);
+			}
+		});
+	}
+
 	public void close() {
 		if (null != instance) {
+			mSqlTemplate.clearStatements();
+			synchronized (TwitterDatabase.class) {
+				if (null != mReadDb) {
+					mReadDb.close();
+					mReadDb = null;
+				}
+			}
 			mOpenHelper.close();
 			instance = null;
 		}
 	}
 
 	/**
-	 * 清空所有表中数据, 谨慎使用
+	 * 清空所有表中数据, 谨慎使用. 在写线程上异步执行
 	 * 
+	 * @return 完成后的Future
 	 */
-	public void clearData() {
-		SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-
-		db.execSQL("DELETE FROM " + StatusTable.TABLE_NAME);
-		db.execSQL("DELETE FROM " + MessageTable.TABLE_NAME);
-		db.execSQL("DELETE FROM " + FollowTable.TABLE_NAME);
-
-		// 2011.03.01 add
-		db.execSQL("DELETE FROM " + UserInfoTable.TABLE_NAME);
+	public Future<Void> clearData() {
+		return mWriter.submit(new Operation<Void>() {
+			@Override
+			public Void execute(SQLiteDatabase db) {
+				db.execSQL("DELETE FROM " + StatusTable.TABLE_NAME);
+				db.execSQL("DELETE FROM " + MessageTable.TABLE_NAME);
+				db.execSQL("DELETE FROM " + FollowTable.TABLE_NAME);
+
+				// 2011.03.01 add
+				db.execSQL("DELETE FROM " + UserInfoTable.TABLE_NAME);
+
+				mCounters.invalidateAll();
+				mWatermarks.invalidateAll();
+				mUserHashes.clear();
+				mFollowerIds = null;
+				setFriendIds(null);
+				return null;
+			}
+		});
 	}
 
 	/**
@@ -241,19 +380,30 @@ public class TwitterDatabase {
 	 *         whereClause.
 	 * @deprecated use {@link StatusDAO#deleteStatus(String, String, int)}
 	 */
-	public int deleteTweet(String tweetId, String owner, int type) {
-		SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-
-		String where = StatusTable._ID + " =? ";
-		if (!TextUtils.isEmpty(owner)) {
-			where += " AND " + StatusTable.OWNER_ID + " = '" + owner + "' ";
-		}
-		if (-1 != type) {
-			where += " AND " + StatusTable.STATUS_TYPE + " = " + type;
-		}
+	public int deleteTweet(final String tweetId, final String owner,
+			final int type) {
+		return mWriter.execute(new Operation<Integer>() {
+			@Override
+			public Integer execute(SQLiteDatabase db) {
+				String where = StatusTable._ID + " =? ";
+				if (!TextUtils.isEmpty(owner)) {
+					where += " AND " + StatusTable.OWNER_ID + " = '" + owner
+							+ "' ";
+				}
+				if (-1 != type) {
+					where += " AND " + StatusTable.STATUS_TYPE + " = " + type;
+				}
 
-		return db.delete(StatusTable.TABLE_NAME, where,
-				new String[] { tweetId });
+				String[] args = new String[] { tweetId };
+				Map<String, int[]> removed = countStatuses(db, where, args);
+				int result = db.delete(StatusTable.TABLE_NAME, where, args);
+				subtractStatusCounts(removed);
+				for (String key : removed.keySet()) {
+					mWatermarks.retract(key, tweetId);
+				}
+				return result;
+			}
+		});
 	}
 
 	/**
@@ -263,43 +413,104 @@ public class TwitterDatabase {
 	 *            <li>StatusTable.TYPE_HOME</li> <li>StatusTable.TYPE_MENTION</li>
 	 *            <li>StatusTable.TYPE_USER</li> <li>StatusTable.TYPE_FAVORITE</li>
 	 *            <li>-1 means all types</li>
+	 * @return 完成后得到删除的行数, 在写线程上异步执行
+	 */
+	public Future<Integer> gc(final String owner, final int type) {
+		return mWriter.submit(new Operation<Integer>() {
+			@Override
+			public Integer execute(SQLiteDatabase db) {
+				Map<String, int[]> removed = new HashMap<String, int[]>();
+				int deleted = gc(db, owner, type, StatusTable.MAX_ROW_NUM,
+						removed);
+				subtractStatusCounts(removed);
+				// 删除的是最旧的消息, 最旧一条的ID需要重新查询
+				for (String key : removed.keySet()) {
+					mWatermarks.invalidate(key);
+				}
+				return deleted;
+			}
+		});
+	}
+
+	/**
+	 * 先沿时间线索引找到第keep条消息的created_at, 再删除比它旧的消息.
+	 * 与此前的 NOT IN (SELECT ... LIMIT) 子查询相比, 两条语句都只做索引范围扫描.
+	 * created_at相同的消息会一起保留, 因此实际保留的条数可能略多于keep.
 	 */
-	public void gc(String owner, int type) {
-		SQLiteDatabase mDb = mOpenHelper.getWritableDatabase();
+	public static int gc(SQLiteDatabase db, String owner, int type, int keep) {
+		return gc(db, owner, type, keep, null);
+	}
 
-		String sql = "DELETE FROM " + StatusTable.TABLE_NAME + " WHERE "
-				+ StatusTable._ID + " NOT IN " + " (SELECT " + StatusTable._ID // 子句
-				+ " FROM " + StatusTable.TABLE_NAME;
-		boolean first = true;
+	/**
+	 * @param removed
+	 *            不为null时, 删除前按(owner, type)统计将被删除的消息, 见
+	 *            {@link #countStatuses(SQLiteDatabase, String, String[])}
+	 */
+	private static int gc(SQLiteDatabase db, String owner, int type,
+			int keep, Map<String, int[]> removed) {
+		ArrayList<String> args = new ArrayList<String>();
+		String where = "";
 		if (!TextUtils.isEmpty(owner)) {
-			sql += " WHERE " + StatusTable.OWNER_ID + " = '" + owner + "' ";
-			first = false;
+			where += StatusTable.OWNER_ID + " = ?";
+			args.add(owner);
 		}
 		if (type != -1) {
-			if (first) {
-				sql += " WHERE ";
-			} else {
-				sql += " AND ";
+			if (where.length() > 0) {
+				where += " AND ";
 			}
-			sql += StatusTable.STATUS_TYPE + " = " + type + " ";
+			where += StatusTable.STATUS_TYPE + " = ?";
+			args.add(String.valueOf(type));
 		}
-		sql += " ORDER BY " + StatusTable.CREATED_AT + " DESC LIMIT "
-				+ StatusTable.MAX_ROW_NUM + ")";
+		String[] selectionArgs = args.toArray(new String[args.size()]);
 
-		if (!TextUtils.isEmpty(owner)) {
-			sql += " AND " + StatusTable.OWNER_ID + " = '" + owner + "' ";
-		}
-		if (type != -1) {
-			sql += " AND " + StatusTable.STATUS_TYPE + " = " + type + " ";
+		Cursor cursor = db.query(StatusTable.TABLE_NAME,
+				new String[] { StatusTable.CREATED_AT },
+				where.length() > 0 ? where : null, selectionArgs, null, null,
+				StatusTable.CREATED_AT + " DESC", (keep - 1) + ",1");
+		long cutoff;
+		try {
+			if (!cursor.moveToFirst()) {
+				// 不足keep条, 无需清理
+				return 0;
+			}
+			cutoff = cursor.getLong(0);
+		} finally {
+			cursor.close();
 		}
 
-		Log.v(TAG, sql);
-		mDb.execSQL(sql);
+		args.add(String.valueOf(cutoff));
+		where += (where.length() > 0 ? " AND " : "") + StatusTable.CREATED_AT
+				+ " < ?";
+		String[] deleteArgs = args.toArray(new String[args.size()]);
+		if (null != removed) {
+			removed.putAll(countStatuses(db, where, deleteArgs));
+		}
+		int deleted = db.delete(StatusTable.TABLE_NAME, where, deleteArgs);
+		Log.v(TAG, "gc owner=" + owner + " type=" + type + " deleted="
+				+ deleted);
+		return deleted;
 	}
 
+	/**
+	 * 版本4之前created_at的格式, 现在以epoch millis保存, 见CreatedAtMillisMigration
+	 */
 	public final static DateFormat DB_DATE_FORMATTER = new SimpleDateFormat(
 			"yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
 
+	/**
+	 * 读取以epoch millis保存的时间
+	 * 
+	 * @param cursor
+	 * @param columnIndex
+	 * @return 值为NULL时返回null
+	 */
+	public static Date getDate(Cursor cursor, int columnIndex) {
+		if (cursor.isNull(columnIndex)) {
+			return null;
+		}
+		return new Date(cursor.getLong(columnIndex));
+	}
+
 	private static final int CONFLICT_REPLACE = 0x00000005;
 
 	/**
@@ -310,27 +521,32 @@ public class TwitterDatabase {
 	 * @return the row ID of the newly inserted row, or -1 if an error occurred
 	 * @deprecated use {@link StatusDAO#insertStatus(Status, boolean)}
 	 */
-	public long insertTweet(Tweet tweet, String owner, int type,
-			boolean isUnread) {
-		SQLiteDatabase Db = mOpenHelper.getWritableDatabase();
-
-		if (isExists(tweet.id, owner, type)) {
-			Log.w(TAG, tweet.id + "is exists.");
-			return -1;
-		}
+	public long insertTweet(final Tweet tweet, final String owner,
+			final int type, boolean isUnread) {
+		final ContentValues initialValues = makeTweetValues(tweet, owner,
+				type, isUnread);
+		return mWriter.execute(new Operation<Long>() {
+			@Override
+			public Long execute(SQLiteDatabase db) {
+				if (isExists(tweet.id, owner, type)) {
+					Log.w(TAG, tweet.id + "is exists.");
+					return -1L;
+				}
 
-		ContentValues initialValues = makeTweetValues(tweet, owner, type,
-				isUnread);
-		long id = Db.insert(StatusTable.TABLE_NAME, null, initialValues);
+				long id = db.insert(StatusTable.TABLE_NAME, null,
+						initialValues);
 
-		if (-1 == id) {
-			Log.e(TAG, "cann't insert the tweet : " + tweet.toString());
-		} else {
-			// Log.v(TAG, "Insert a status into database : " +
-			// tweet.toString());
-		}
+				if (-1 == id) {
+					Log.e(TAG, "cann't insert the tweet : " + tweet.toString());
+				} else {
+					// Log.v(TAG, "Insert a status into database : " +
+					// tweet.toString());
+					invalidateStatusCache(owner, type);
+				}
 
-		return id;
+				return id;
+			}
+		});
 	}
 
 	/**
@@ -342,13 +558,20 @@ public class TwitterDatabase {
 	 * @return the number of rows affected
 	 * @deprecated use {@link StatusDAO#updateStatus(String, ContentValues)}
 	 */
-	public int updateTweet(String tweetId, ContentValues values) {
+	public int updateTweet(final String tweetId, final ContentValues values) {
 		Log.v(TAG, "Update Tweet  : " + tweetId + " " + values.toString());
 
-		SQLiteDatabase Db = mOpenHelper.getWritableDatabase();
-
-		return Db.update(StatusTable.TABLE_NAME, values,
-				StatusTable._ID + "=?", new String[] { tweetId });
+		return mWriter.execute(new Operation<Integer>() {
+			@Override
+			public Integer execute(SQLiteDatabase db) {
+				int result = db.update(StatusTable.TABLE_NAME, values,
+						StatusTable._ID + "=?", new String[] { tweetId });
+				if (values.containsKey(StatusTable.IS_UNREAD)) {
+					invalidateStatusCache(null, -1);
+				}
+				return result;
+			}
+		});
 	}
 
 	/** @deprecated */
@@ -376,8 +599,7 @@ public class TwitterDatabase {
 		initialValues.put(StatusTable.REPOST_STATUS_ID, tweet.repostStatusId);
 		initialValues.put(StatusTable.REPOST_USER_ID, tweet.repostUserId);
 		// initialValues.put(FIELD_IS_REPLY, tweet.isReply());
-		initialValues.put(StatusTable.CREATED_AT,
-				DB_DATE_FORMATTER.format(tweet.createdAt));
+		initialValues.put(StatusTable.CREATED_AT, tweet.createdAt.getTime());
 		initialValues.put(StatusTable.SOURCE, tweet.source);
 		initialValues.put(StatusTable.IS_UNREAD, isUnread);
 		initialValues.put(StatusTable.TRUNCATED, tweet.truncated);
@@ -393,8 +615,8 @@ public class TwitterDatabase {
 	 *            需要写入的消息List
 	 * @return 写入的记录条数
 	 */
-	public int putTweets(List<Tweet> tweets, String owner, int type,
-			boolean isUnread) {
+	public int putTweets(List<Tweet> tweets, final String owner, int type,
+			final boolean isUnread) {
 		if (TwitterApplication.DEBUG) {
 			DebugTimer.betweenStart("Status DB");
 		}
@@ -402,42 +624,39 @@ public class TwitterDatabase {
 			return 0;
 		}
 
-		SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-
-		int result = 0;
-		try {
-			db.beginTransaction();
-
-			for (int i = tweets.size() - 1; i >= 0; i--) {
-				Tweet tweet = tweets.get(i);
-
-				Log.d(TAG, "insertTweet, tweet id=" + tweet.id);
-				if (TextUtils.isEmpty(tweet.id) || tweet.id.equals("false")){
-					Log.e(TAG, "tweet id is null, ghost message encounted");
-					continue;
-				}
-				
-				ContentValues initialValues = makeTweetValues(tweet, owner,
-						type, isUnread);
-				long id = db
-						.insert(StatusTable.TABLE_NAME, null, initialValues);
+		// 从旧到新写入
+		List<Tweet> valid = new ArrayList<Tweet>(tweets.size());
+		for (int i = tweets.size() - 1; i >= 0; i--) {
+			Tweet tweet = tweets.get(i);
+			if (TextUtils.isEmpty(tweet.id) || tweet.id.equals("false")) {
+				Log.e(TAG, "tweet id is null, ghost message encounted");
+				continue;
+			}
+			valid.add(tweet);
+		}
 
-				if (-1 == id) {
-					Log.e(TAG, "cann't insert the tweet : " + tweet.toString());
-				} else {
-					++result;
-					// Log.v(TAG,
-					// String.format("Insert a status into database[%s] : %s",
-					// owner, tweet.toString()));
-					Log.v("TAG", "Insert Status");
-				}
+		final List<Tweet> rows = valid;
+		final int statusType = type;
+		int result = mWriter.execute(new Operation<Integer>() {
+			@Override
+			public Integer execute(SQLiteDatabase db) {
+				final String typeArg = String.valueOf(statusType);
+				int inserted = mSqlTemplate.batchUpdate(INSERT_TWEET_SQL,
+						rows, new StatementBinder<Tweet>() {
+							@Override
+							public void bind(SQLiteStatement statement,
+									Tweet tweet) {
+								bindTweet(statement, tweet, owner, typeArg,
+										isUnread);
+							}
+						});
+				mCounters.add(statusCounter(owner, statusType), inserted,
+						isUnread ? inserted : 0);
+				extendStatusMarks(owner, statusType, rows);
+				return inserted;
 			}
+		});
 
-			// gc(type); // 保持总量
-			db.setTransactionSuccessful();
-		} finally {
-			db.endTransaction();
-		}
 		if (TwitterApplication.DEBUG) {
 			DebugTimer.betweenEnd("Status DB");
 		}
@@ -453,7 +672,7 @@ public class TwitterDatabase {
 	 * @deprecated use {@link StatusDAO#findStatuses(String, int)}
 	 */
 	public Cursor fetchAllTweets(String owner, int type) {
-		SQLiteDatabase mDb = mOpenHelper.getReadableDatabase();
+		SQLiteDatabase mDb = getReadDb();
 
 		return mDb.query(StatusTable.TABLE_NAME, StatusTable.TABLE_COLUMNS,
 				StatusTable.OWNER_ID + " = ? AND " + StatusTable.STATUS_TYPE
@@ -486,11 +705,16 @@ public class TwitterDatabase {
 	 *         otherwise. To remove all rows and get a count pass "1" as the
 	 *         whereClause.
 	 */
-	public int dropAllTweets(int type) {
-		SQLiteDatabase mDb = mOpenHelper.getReadableDatabase();
-
-		return mDb.delete(StatusTable.TABLE_NAME, StatusTable.STATUS_TYPE
-				+ " = " + type, null);
+	public int dropAllTweets(final int type) {
+		return mWriter.execute(new Operation<Integer>() {
+			@Override
+			public Integer execute(SQLiteDatabase db) {
+				int result = db.delete(StatusTable.TABLE_NAME,
+						StatusTable.STATUS_TYPE + " = " + type, null);
+				invalidateStatusCache(null, type);
+				return result;
+			}
+		});
 	}
 
 	/**
@@ -514,69 +738,348 @@ public class TwitterDatabase {
 	}
 
 	private String fetchMaxOrMinTweetId(String owner, int type, boolean isMax) {
-		SQLiteDatabase mDb = mOpenHelper.getReadableDatabase();
+		Watermarks.Mark mark = getStatusMark(owner, type);
+		return isMax ? mark.maxId : mark.minId;
+	}
 
-		String sql = "SELECT " + StatusTable._ID + " FROM "
-				+ StatusTable.TABLE_NAME + " WHERE " + StatusTable.STATUS_TYPE
-				+ " = " + type + " AND " + StatusTable.OWNER_ID + " = '"
-				+ owner + "' " + " ORDER BY " + StatusTable.CREATED_AT;
-		if (isMax)
-			sql += " DESC ";
+	/**
+	 * Count unread tweet
+	 * 
+	 * @param tableName
+	 * @return
+	 */
+	public int fetchUnreadCount(String owner, int type) {
+		return getStatusCounts(owner, type)[1];
+	}
 
-		Cursor mCursor = mDb.rawQuery(sql + " LIMIT 1", null);
+	private static final String COUNT_TWEETS_SQL = "SELECT COUNT(*), SUM("
+			+ StatusTable.IS_UNREAD + " = 1) FROM " + StatusTable.TABLE_NAME
+			+ " WHERE " + StatusTable.OWNER_ID + " = ? AND "
+			+ StatusTable.STATUS_TYPE + " = ?";
 
-		String result = null;
+	private static final String COUNT_DMS_SQL = "SELECT COUNT(*), SUM("
+			+ MessageTable.FIELD_IS_UNREAD + " = 1) FROM "
+			+ MessageTable.TABLE_NAME;
 
-		if (mCursor == null) {
-			return result;
+	private static String statusCounter(String owner, int type) {
+		return type + ":" + owner;
+	}
+
+	/**
+	 * @return {总数, 未读数}, 优先使用内存中的计数
+	 */
+	private int[] getStatusCounts(String owner, int type) {
+		String key = statusCounter(owner, type);
+		int[] counts = mCounters.get(key);
+		if (null != counts) {
+			return counts;
 		}
+		return loadCounts(key, COUNT_TWEETS_SQL, new String[] { owner,
+				String.valueOf(type) });
+	}
 
-		mCursor.moveToFirst();
-		if (mCursor.getCount() == 0) {
-			result = null;
-		} else {
-			result = mCursor.getString(0);
+	private int[] getDmCounts() {
+		int[] counts = mCounters.get(DM_COUNTER);
+		if (null != counts) {
+			return counts;
+		}
+		return loadCounts(DM_COUNTER, COUNT_DMS_SQL, null);
+	}
+
+	/**
+	 * 重新统计并缓存计数. 在读连接上统计, 不必等待写线程; 统计期间有写入或提交时,
+	 * 结果不被缓存
+	 */
+	private static int[] loadCounts(String key, String sql, String[] args) {
+		long version = mCounters.getVersion();
+		int[] counts = new int[2];
+		Cursor cursor = getReadDb().rawQuery(sql, args);
+		try {
+			if (cursor.moveToFirst()) {
+				counts[0] = cursor.getInt(0);
+				counts[1] = cursor.getInt(1);
+			}
+		} finally {
+			cursor.close();
 		}
-		mCursor.close();
+		mCounters.put(key, version, counts[0], counts[1]);
+		return counts;
+	}
 
-		return result;
+	/**
+	 * 在写线程之外删除或修改了消息后调用, 使相关的计数和最新/最旧ID失效
+	 * 
+	 * @param owner
+	 *            为空时表示所有用户
+	 * @param type
+	 *            -1表示所有类型
+	 */
+	private static void invalidateStatusCache(String owner, int type) {
+		if (-1 == type) {
+			mCounters.invalidateAll();
+			mWatermarks.invalidateAll();
+		} else {
+			String group = TextUtils.isEmpty(owner) ? String.valueOf(type)
+					: statusCounter(owner, type);
+			mCounters.invalidate(group);
+			mWatermarks.invalidate(group);
+		}
 	}
 
 	/**
-	 * Count unread tweet
+	 * 删除消息之前, 在同一个写事务中按(owner, type)统计将被删除的消息
 	 * 
-	 * @param tableName
-	 * @return
+	 * @return 计数key到{条数, 未读数}的映射
 	 */
-	public int fetchUnreadCount(String owner, int type) {
-		SQLiteDatabase mDb = mOpenHelper.getReadableDatabase();
-
-		Cursor mCursor = mDb.rawQuery("SELECT COUNT(" + StatusTable._ID + ")"
-				+ " FROM " + StatusTable.TABLE_NAME + " WHERE "
-				+ StatusTable.STATUS_TYPE + " = " + type + " AND "
-				+ StatusTable.OWNER_ID + " = '" + owner + "' AND "
-				+ StatusTable.IS_UNREAD + " = 1 ",
-		// "LIMIT " + StatusTable.MAX_ROW_NUM,
+	private static Map<String, int[]> countStatuses(SQLiteDatabase db,
+			String where, String[] args) {
+		Map<String, int[]> result = new HashMap<String, int[]>();
+		Cursor cursor = db.query(StatusTable.TABLE_NAME, new String[] {
+				StatusTable.OWNER_ID, StatusTable.STATUS_TYPE, "COUNT(*)",
+				"SUM(" + StatusTable.IS_UNREAD + " = 1)" }, where, args,
+				StatusTable.OWNER_ID + "," + StatusTable.STATUS_TYPE, null,
 				null);
+		try {
+			while (cursor.moveToNext()) {
+				result.put(statusCounter(cursor.getString(0), cursor.getInt(1)),
+						new int[] { cursor.getInt(2), cursor.getInt(3) });
+			}
+		} finally {
+			cursor.close();
+		}
+		return result;
+	}
 
-		int result = 0;
+	/**
+	 * 删除消息后从计数中减去{@link #countStatuses(SQLiteDatabase, String, String[])}
+	 * 的统计结果, 不必重新统计
+	 */
+	private static void subtractStatusCounts(Map<String, int[]> removed) {
+		for (Map.Entry<String, int[]> entry : removed.entrySet()) {
+			int[] counts = entry.getValue();
+			mCounters.add(entry.getKey(), -counts[0], -counts[1]);
+		}
+	}
 
-		if (mCursor == null) {
-			return result;
+	private static String dmWatermark(boolean isSent) {
+		return DM_COUNTER + ":" + (isSent ? 1 : 0);
+	}
+
+	private static void invalidateDmCache() {
+		mCounters.invalidate(DM_COUNTER);
+		mWatermarks.invalidate(DM_COUNTER);
+	}
+
+	/**
+	 * @return 某类消息中最新和最旧的一条, 优先使用内存中的记录
+	 */
+	private Watermarks.Mark getStatusMark(String owner, int type) {
+		String key = statusCounter(owner, type);
+		Watermarks.Mark mark = mWatermarks.get(key);
+		if (null != mark) {
+			return mark;
 		}
+		return loadMark(key, StatusTable.TABLE_NAME, StatusTable._ID,
+				StatusTable.CREATED_AT, StatusTable.OWNER_ID + " = ? AND "
+						+ StatusTable.STATUS_TYPE + " = ?", new String[] {
+						owner, String.valueOf(type) });
+	}
 
-		mCursor.moveToFirst();
-		result = mCursor.getInt(0);
-		mCursor.close();
+	private Watermarks.Mark getDmMark(boolean isSent) {
+		String key = dmWatermark(isSent);
+		Watermarks.Mark mark = mWatermarks.get(key);
+		if (null != mark) {
+			return mark;
+		}
+		return loadMark(key, MessageTable.TABLE_NAME, MessageTable._ID,
+				MessageTable.FIELD_CREATED_AT, MessageTable.FIELD_IS_SENT
+						+ " = ?", new String[] { isSent ? "1" : "0" });
+	}
 
-		return result;
+	/**
+	 * 沿(..., created_at)索引查出最新和最旧的一条并缓存, 与loadCounts()一样在读连接上执行
+	 */
+	private static Watermarks.Mark loadMark(String key, String table,
+			String idColumn, String timeColumn, String selection,
+			String[] selectionArgs) {
+		SQLiteDatabase db = getReadDb();
+		long version = mWatermarks.getVersion();
+		Watermarks.Mark mark = new Watermarks.Mark();
+		String[] columns = new String[] { idColumn, timeColumn };
+		Cursor cursor = db.query(table, columns, selection, selectionArgs,
+				null, null, timeColumn + " DESC", "1");
+		try {
+			if (cursor.moveToFirst()) {
+				mark.maxId = cursor.getString(0);
+				mark.maxTime = cursor.getLong(1);
+			}
+		} finally {
+			cursor.close();
+		}
+		cursor = db.query(table, columns, selection, selectionArgs, null,
+				null, timeColumn + " ASC", "1");
+		try {
+			if (cursor.moveToFirst()) {
+				mark.minId = cursor.getString(0);
+				mark.minTime = cursor.getLong(1);
+			}
+		} finally {
+			cursor.close();
+		}
+		mWatermarks.put(key, version, mark);
+		return mark;
+	}
+
+	/**
+	 * 在写线程上写入消息后调用. 被忽略的消息已经存在, 一并处理也不影响结果
+	 */
+	private static void extendStatusMarks(String owner, int type,
+			List<Tweet> tweets) {
+		String key = statusCounter(owner, type);
+		for (Tweet tweet : tweets) {
+			mWatermarks.extend(key, tweet.id, tweet.createdAt.getTime());
+		}
 	}
 
 	public int addNewTweetsAndCountUnread(List<Tweet> tweets, String owner,
 			int type) {
-		putTweets(tweets, owner, type, true);
+		return ingestTweets(tweets, owner, type, true).unread;
+	}
+
+	/**
+	 * 批量写入的结果
+	 */
+	public static class IngestResult {
+		/** 新写入的条数, 已存在的消息不计在内 */
+		public final int inserted;
+		/** 写入后该类型的未读消息数 */
+		public final int unread;
+
+		IngestResult(int inserted, int unread) {
+			this.inserted = inserted;
+			this.unread = unread;
+		}
+	}
+
+	// 列的顺序与bindTweet()一致
+	private static final String INSERT_TWEET_SQL = "INSERT OR IGNORE INTO "
+			+ StatusTable.TABLE_NAME + " (" + StatusTable._ID + ","
+			+ StatusTable.STATUS_TYPE + "," + StatusTable.OWNER_ID + ","
+			+ StatusTable.USER_ID + "," + StatusTable.USER_SCREEN_NAME + ","
+			+ StatusTable.TEXT + "," + StatusTable.PROFILE_IMAGE_URL + ","
+			+ StatusTable.IS_UNREAD + "," + StatusTable.CREATED_AT + ","
+			+ StatusTable.SOURCE + "," + StatusTable.FAVORITED + ","
+			+ StatusTable.IN_REPLY_TO_STATUS_ID + ","
+			+ StatusTable.IN_REPLY_TO_USER_ID + ","
+			+ StatusTable.IN_REPLY_TO_SCREEN_NAME + ","
+			+ StatusTable.REPOST_STATUS_ID + "," + StatusTable.REPOST_USER_ID
+			+ "," + StatusTable.PIC_THUMB + "," + StatusTable.PIC_MID + ","
+			+ StatusTable.PIC_ORIG + "," + StatusTable.TRUNCATED
+			+ ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
+	/**
+	 * 在一个事务中用预编译的语句写入一批消息, 已存在的消息被忽略, 并在同一事务中
+	 * 更新该类型的消息数和未读数
+	 * 
+	 * @param tweets
+	 *            需要写入的消息, 按时间从新到旧排列
+	 * @param owner
+	 * @param type
+	 * @param isUnread
+	 * @return IngestResult
+	 */
+	public IngestResult ingestTweets(final List<Tweet> tweets,
+			final String owner, final int type, final boolean isUnread) {
+		if (null == tweets || 0 == tweets.size()) {
+			return new IngestResult(0, fetchUnreadCount(owner, type));
+		}
+		return mWriter.execute(new Operation<IngestResult>() {
+			@Override
+			public IngestResult execute(SQLiteDatabase db) {
+				return ingestTweets(db, tweets, owner, type, isUnread);
+			}
+		});
+	}
+
+	private IngestResult ingestTweets(SQLiteDatabase db, List<Tweet> tweets,
+			String owner, int type, boolean isUnread) {
+		if (TwitterApplication.DEBUG) {
+			DebugTimer.betweenStart("Status DB");
+		}
+
+		SQLiteStatement insert = db.compileStatement(INSERT_TWEET_SQL);
+
+		IngestResult result;
+		try {
+			db.beginTransaction();
+			// 写入前确保计数已加载, 之后只需增加
+			int[] counts = getStatusCounts(owner, type);
+			String typeArg = String.valueOf(type);
+
+			int inserted = 0;
+			for (int i = tweets.size() - 1; i >= 0; i--) {
+				Tweet tweet = tweets.get(i);
+				if (TextUtils.isEmpty(tweet.id) || tweet.id.equals("false")) {
+					Log.e(TAG, "tweet id is null, ghost message encounted");
+					continue;
+				}
+				bindTweet(insert, tweet, owner, typeArg, isUnread);
+				// 被INSERT OR IGNORE忽略时返回-1
+				if (-1 != insert.executeInsert()) {
+					++inserted;
+				}
+				mWatermarks.extend(statusCounter(owner, type), tweet.id,
+						tweet.createdAt.getTime());
+			}
+
+			int unread = isUnread ? inserted : 0;
+			mCounters.add(statusCounter(owner, type), inserted, unread);
+			result = new IngestResult(inserted, counts[1] + unread);
+
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			insert.close();
+		}
+
+		if (TwitterApplication.DEBUG) {
+			DebugTimer.betweenEnd("Status DB");
+		}
+		return result;
+	}
 
-		return fetchUnreadCount(owner, type);
+	private static void bindTweet(SQLiteStatement statement, Tweet tweet,
+			String owner, String type, boolean isUnread) {
+		statement.clearBindings();
+		bindString(statement, 1, tweet.id);
+		bindString(statement, 2, type);
+		bindString(statement, 3, owner);
+		bindString(statement, 4, tweet.userId);
+		bindString(statement, 5, tweet.screenName);
+		bindString(statement, 6, tweet.text);
+		bindString(statement, 7, tweet.profileImageUrl);
+		statement.bindLong(8, isUnread ? 1 : 0);
+		statement.bindLong(9, tweet.createdAt.getTime());
+		bindString(statement, 10, tweet.source);
+		bindString(statement, 11, tweet.favorited);
+		bindString(statement, 12, tweet.inReplyToStatusId);
+		bindString(statement, 13, tweet.inReplyToUserId);
+		bindString(statement, 14, tweet.inReplyToScreenName);
+		bindString(statement, 15, tweet.repostStatusId);
+		bindString(statement, 16, tweet.repostUserId);
+		bindString(statement, 17, tweet.thumbnail_pic);
+		bindString(statement, 18, tweet.bmiddle_pic);
+		bindString(statement, 19, tweet.original_pic);
+		bindString(statement, 20, tweet.truncated);
+	}
+
+	private static void bindString(SQLiteStatement statement, int index,
+			String value) {
+		if (null == value) {
+			statement.bindNull(index);
+		} else {
+			statement.bindString(index, value);
+		}
 	}
 
 	/**
@@ -588,8 +1091,8 @@ public class TwitterDatabase {
 	 * @deprecated use {@link Status#setFavorited(boolean)} and
 	 *             {@link StatusDAO#updateStatus(Status)}
 	 */
-	public boolean setFavorited(String tweetId, String isFavorited) {
-		ContentValues values = new ContentValues();
+	public boolean setFavorited(final String tweetId, String isFavorited) {
+		final ContentValues values = new ContentValues();
 		values.put(StatusTable.FAVORITED, isFavorited);
 		int i = updateTweet(tweetId, values);
 
@@ -607,9 +1110,7 @@ public class TwitterDatabase {
 	 *         因为主键的原因,此处返回的不是 _ID 的值, 而是一个自增长的 row_id
 	 */
 	public long createDm(Dm dm, boolean isUnread) {
-		SQLiteDatabase mDb = mOpenHelper.getWritableDatabase();
-
-		ContentValues initialValues = new ContentValues();
+		final ContentValues initialValues = new ContentValues();
 		initialValues.put(MessageTable._ID, dm.id);
 		initialValues.put(MessageTable.FIELD_USER_SCREEN_NAME, dm.screenName);
 		initialValues.put(MessageTable.FIELD_TEXT, dm.text);
@@ -617,11 +1118,18 @@ public class TwitterDatabase {
 				dm.profileImageUrl);
 		initialValues.put(MessageTable.FIELD_IS_UNREAD, isUnread);
 		initialValues.put(MessageTable.FIELD_IS_SENT, dm.isSent);
-		initialValues.put(MessageTable.FIELD_CREATED_AT,
-				DB_DATE_FORMATTER.format(dm.createdAt));
+		initialValues.put(MessageTable.FIELD_CREATED_AT, dm.createdAt.getTime());
 		initialValues.put(MessageTable.FIELD_USER_ID, dm.userId);
 
-		return mDb.insert(MessageTable.TABLE_NAME, null, initialValues);
+		return mWriter.execute(new Operation<Long>() {
+			@Override
+			public Long execute(SQLiteDatabase db) {
+				long rowId = db.insert(MessageTable.TABLE_NAME, null,
+						initialValues);
+				invalidateDmCache();
+				return rowId;
+			}
+		});
 	}
 
 	//
@@ -632,12 +1140,17 @@ public class TwitterDatabase {
 	 * @param userId
 	 * @return the row ID of the newly inserted row, or -1 if an error occurred
 	 */
-	public long createFollower(String userId) {
-		SQLiteDatabase mDb = mOpenHelper.getWritableDatabase();
-
-		ContentValues initialValues = new ContentValues();
-		initialValues.put(FollowTable._ID, userId);
-		long rowId = mDb.insert(FollowTable.TABLE_NAME, null, initialValues);
+	public long createFollower(final String userId) {
+		// 与mFollowerIds的加载同在写线程上执行
+		long rowId = mWriter.execute(new Operation<Long>() {
+			@Override
+			public Long execute(SQLiteDatabase db) {
+				ContentValues initialValues = new ContentValues();
+				initialValues.put(FollowTable._ID, userId);
+				mFollowerIds = null;
+				return db.insert(FollowTable.TABLE_NAME, null, initialValues);
+			}
+		});
 		if (-1 == rowId) {
 			Log.e(TAG, "Cann't create Follower : " + userId);
 		} else {
@@ -646,28 +1159,205 @@ public class TwitterDatabase {
 		return rowId;
 	}
 
+	// API只返回ID, name列声明了not null, 暂以ID填充
+	private static final String INSERT_FOLLOWER_SQL = "INSERT INTO "
+			+ FollowTable.TABLE_NAME + " (" + FollowTable._ID + ","
+			+ FollowTable.FIELD_USER_NAME + ") VALUES (?,?)";
+
+	private static final String DELETE_FOLLOWER_SQL = "DELETE FROM "
+			+ FollowTable.TABLE_NAME + " WHERE " + FollowTable._ID + " = ?";
+
 	/**
-	 * 清空Followers表并添加新内容
+	 * 将Followers表同步为给定的ID集合
+	 * 
+	 * 与表中现有ID求差集, 只删除已不再关注的ID并插入新增的ID, 未变化的行不被改写
 	 * 
 	 * @param followers
 	 */
 	public void syncFollowers(List<String> followers) {
-		SQLiteDatabase mDb = mOpenHelper.getWritableDatabase();
+		syncFollowers(IdSet.of(followers));
+	}
+
+	/**
+	 * @see #syncFollowers(List)
+	 */
+	public void syncFollowers(final IdSet fresh) {
+		// 在写线程的事务中执行
+		mWriter.execute(new Operation<Void>() {
+			@Override
+			public Void execute(SQLiteDatabase db) {
+				IdSet current = getFollowerIds(db);
+				IdSet removed = current.minus(fresh);
+				IdSet added = fresh.minus(current);
+
+				if (!removed.isEmpty()) {
+					List<Object[]> rows = new ArrayList<Object[]>(removed
+							.size());
+					for (int i = 0; i < removed.size(); i++) {
+						rows.add(new Object[] { removed.get(i) });
+					}
+					mSqlTemplate.batchUpdate(DELETE_FOLLOWER_SQL, rows);
+				}
+				if (!added.isEmpty()) {
+					List<Object[]> rows = new ArrayList<Object[]>(added
+							.size());
+					for (int i = 0; i < added.size(); i++) {
+						String id = added.get(i);
+						rows.add(new Object[] { id, id });
+					}
+					mSqlTemplate.batchUpdate(INSERT_FOLLOWER_SQL, rows);
+				}
+				mFollowerIds = fresh;
+				Log.v(TAG, "syncFollowers: " + fresh.size() + " followers, "
+						+ added.size() + " added, " + removed.size()
+						+ " removed");
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * 缓存为空时从读连接加载, 不在写线程后排队. mFollowerIds只在写线程上替换,
+	 * 避免读连接上较旧的快照覆盖写线程刚更新的集合
+	 * 
+	 * @return Followers表中的所有ID
+	 */
+	public IdSet getFollowerIds() {
+		IdSet ids = mFollowerIds;
+		if (null != ids) {
+			return ids;
+		}
+		if (mWriter.isWriterThread()) {
+			return getFollowerIds(getReadDb());
+		}
+		ids = loadFollowerIds(getReadDb());
+		mWriter.submit(new Operation<IdSet>() {
+			@Override
+			public IdSet execute(SQLiteDatabase db) {
+				return getFollowerIds(db);
+			}
+		});
+		return ids;
+	}
 
+	// 只能在写线程上调用
+	private static IdSet getFollowerIds(SQLiteDatabase db) {
+		IdSet ids = mFollowerIds;
+		if (null == ids) {
+			ids = loadFollowerIds(db);
+			mFollowerIds = ids;
+		}
+		return ids;
+	}
+
+	private static IdSet loadFollowerIds(SQLiteDatabase db) {
+		Cursor cursor = db.query(FollowTable.TABLE_NAME,
+				new String[] { FollowTable._ID }, null, null, null, null,
+				null);
 		try {
-			mDb.beginTransaction();
+			String[] ids = new String[cursor.getCount()];
+			int n = 0;
+			while (cursor.moveToNext()) {
+				ids[n++] = cursor.getString(0);
+			}
+			return IdSet.of(ids);
+		} finally {
+			cursor.close();
+		}
+	}
 
-			boolean result = deleteAllFollowers();
-			Log.v(TAG, "Result of DeleteAllFollowers: " + result);
+	/**
+	 * 保存我关注的用户ID
+	 * 
+	 * @param friends
+	 *            null表示清除
+	 */
+	public synchronized void setFriendIds(IdSet friends) {
+		File file = getFriendIdsFile();
+		mFriendIds = friends;
+		if (null == friends) {
+			file.delete();
+			return;
+		}
 
-			for (String userId : followers) {
-				createFollower(userId);
+		// 先写临时文件再改名, 避免写到一半时留下损坏的文件
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(tmp);
+			out.write(friends.toBytes());
+			out.close();
+			out = null;
+			if (!tmp.renameTo(file)) {
+				Log.w(TAG, "Cann't rename " + tmp);
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Cann't save friend ids", e);
+		} finally {
+			if (null != out) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// ignore
+				}
 			}
+		}
+	}
+
+	/**
+	 * @return 我关注的用户ID, 从未保存过时为空集合
+	 */
+	public synchronized IdSet getFriendIds() {
+		if (null == mFriendIds) {
+			mFriendIds = loadFriendIds(getFriendIdsFile());
+		}
+		return mFriendIds;
+	}
 
-			mDb.setTransactionSuccessful();
+	private static IdSet loadFriendIds(File file) {
+		if (!file.exists()) {
+			return IdSet.EMPTY;
+		}
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			byte[] data = new byte[(int) file.length()];
+			int n = 0;
+			while (n < data.length) {
+				int read = in.read(data, n, data.length - n);
+				if (read < 0) {
+					break;
+				}
+				n += read;
+			}
+			return IdSet.fromBytes(data);
+		} catch (IOException e) {
+			Log.e(TAG, "Cann't load friend ids", e);
+		} catch (IllegalArgumentException e) {
+			Log.w(TAG, "Discard corrupt friend ids", e);
+			file.delete();
 		} finally {
-			mDb.endTransaction();
+			if (null != in) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
 		}
+		return IdSet.EMPTY;
+	}
+
+	private File getFriendIdsFile() {
+		return new File(mContext.getDir(IDS_DIR, Context.MODE_PRIVATE),
+				FRIEND_IDS_FILE);
+	}
+
+	/**
+	 * @return 互相关注的用户ID, 即Followers与我关注的用户的交集, 只能给他们发私信
+	 */
+	public IdSet getMutualFollowIds() {
+		return getFollowerIds().intersect(getFriendIds());
 	}
 
 	/**
@@ -677,7 +1367,7 @@ public class TwitterDatabase {
 	 * @return
 	 */
 	public Cursor fetchAllDms(int type) {
-		SQLiteDatabase mDb = mOpenHelper.getReadableDatabase();
+		SQLiteDatabase mDb = getReadDb();
 
 		String selection = null;
 
@@ -703,137 +1393,177 @@ public class TwitterDatabase {
 	}
 
 	public Cursor fetchAllFollowers() {
-		SQLiteDatabase mDb = mOpenHelper.getReadableDatabase();
+		SQLiteDatabase mDb = getReadDb();
 
 		return mDb.query(FollowTable.TABLE_NAME, FollowTable.TABLE_COLUMNS,
 				null, null, null, null, null);
 	}
 
 	/**
-	 * FIXME:
+	 * 写私信时自动完成收件人, 只提供互相关注的用户
 	 * 
 	 * @param filter
-	 * @return
+	 *            匹配ID或昵称的一部分
+	 * @return 包含_id和StatusTable.USER_SCREEN_NAME两列, 按昵称排序
 	 */
 	public Cursor getFollowerUsernames(String filter) {
-		SQLiteDatabase mDb = mOpenHelper.getReadableDatabase();
-
-		String likeFilter = '%' + filter + '%';
-
-		// FIXME: 此方法的作用应该是在于在写私信时自动完成联系人的功能,
-		// 改造数据库后,因为本地tweets表中的数据有限, 所以几乎使得该功能没有实际价值(因为能从数据库中读到的联系人很少)
-		// 在完成关注者/被关注者两个界面后, 看能不能使得本地有一份
-		// [互相关注] 的 id/name 缓存(即getFriendsIds和getFollowersIds的交集, 因为客户端只能给他们发私信,
-		// 如果按现在
-		// 只提示followers的列表则很容易造成服务器返回"只能给互相关注的人发私信"的错误信息, 这会造成用户无法理解,
-		// 因为此联系人是我们提供给他们选择的,
-		// 并且将目前的自动完成功能的基础上加一个[选择联系人]按钮, 用于启动一个新的联系人列表页面以显示所有可发送私信的联系人对象,
-		// 类似手机写短信时的选择联系人功能
-		return null;
-
-		// FIXME: clean this up. 新数据库中失效, 表名, 列名
-		// return mDb.rawQuery(
-		// "SELECT user_id AS _id, user"
-		// + " FROM (SELECT user_id, user FROM tweets"
-		// + " INNER JOIN followers on tweets.user_id = followers._id UNION"
-		// + " SELECT user_id, user FROM dms INNER JOIN followers"
-		// + " on dms.user_id = followers._id)"
-		// + " WHERE user LIKE ?"
-		// + " ORDER BY user COLLATE NOCASE",
-		// new String[] { likeFilter });
+		IdSet mutual = getMutualFollowIds();
+		MatrixCursor result = new MatrixCursor(new String[] {
+				FollowTable._ID, StatusTable.USER_SCREEN_NAME });
+		if (mutual.isEmpty()) {
+			return result;
+		}
+
+		// 本地有资料的用户显示昵称, 其余以ID代替
+		HashMap<String, String> names = new HashMap<String, String>();
+		Cursor cursor = getReadDb().query(UserInfoTable.TABLE_NAME,
+				new String[] { UserInfoTable._ID,
+						UserInfoTable.FIELD_USER_SCREEN_NAME }, null, null,
+				null, null, null);
+		try {
+			while (cursor.moveToNext()) {
+				String id = cursor.getString(0);
+				if (mutual.contains(id)) {
+					names.put(id, cursor.getString(1));
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+
+		String lowerFilter = filter.toLowerCase();
+		List<String[]> rows = new ArrayList<String[]>();
+		for (int i = 0; i < mutual.size(); i++) {
+			String id = mutual.get(i);
+			String name = names.get(id);
+			if (TextUtils.isEmpty(name)) {
+				name = id;
+			}
+			if (id.toLowerCase().contains(lowerFilter)
+					|| name.toLowerCase().contains(lowerFilter)) {
+				rows.add(new String[] { id, name });
+			}
+		}
+		Collections.sort(rows, new java.util.Comparator<String[]>() {
+			@Override
+			public int compare(String[] a, String[] b) {
+				return a[1].compareToIgnoreCase(b[1]);
+			}
+		});
+		for (String[] row : rows) {
+			result.addRow(row);
+		}
+		return result;
 	}
 
 	/**
 	 * @param userId
 	 *            该用户是否follow Me
-	 * @deprecated 未使用
 	 * @return
 	 */
 	public boolean isFollower(String userId) {
-		SQLiteDatabase mDb = mOpenHelper.getReadableDatabase();
-
-		Cursor cursor = mDb.query(FollowTable.TABLE_NAME,
-				FollowTable.TABLE_COLUMNS, FollowTable._ID + "= ?",
-				new String[] { userId }, null, null, null);
-
-		boolean result = false;
-
-		if (cursor != null && cursor.moveToFirst()) {
-			result = true;
-		}
-
-		cursor.close();
-
-		return result;
+		return getFollowerIds().contains(userId);
 	}
 
 	public boolean deleteAllFollowers() {
-		SQLiteDatabase mDb = mOpenHelper.getWritableDatabase();
-
-		return mDb.delete(FollowTable.TABLE_NAME, null, null) > 0;
+		return mWriter.execute(new Operation<Boolean>() {
+			@Override
+			public Boolean execute(SQLiteDatabase db) {
+				mFollowerIds = null;
+				return db.delete(FollowTable.TABLE_NAME, null, null) > 0;
+			}
+		});
 	}
 
-	public boolean deleteDm(String id) {
-		SQLiteDatabase mDb = mOpenHelper.getWritableDatabase();
-
-		return mDb.delete(MessageTable.TABLE_NAME,
-				String.format("%s = '%s'", MessageTable._ID, id), null) > 0;
+	public boolean deleteDm(final String id) {
+		return mWriter.execute(new Operation<Boolean>() {
+			@Override
+			public Boolean execute(SQLiteDatabase db) {
+				String where = MessageTable._ID + " = ?";
+				String[] args = new String[] { id };
+				int total = 0;
+				int unread = 0;
+				Cursor cursor = db.query(MessageTable.TABLE_NAME,
+						new String[] { "COUNT(*)",
+								"SUM(" + MessageTable.FIELD_IS_UNREAD + " = 1)" },
+						where, args, null, null, null);
+				try {
+					if (cursor.moveToFirst()) {
+						total = cursor.getInt(0);
+						unread = cursor.getInt(1);
+					}
+				} finally {
+					cursor.close();
+				}
 
+				boolean result = db.delete(MessageTable.TABLE_NAME, where,
+						args) > 0;
+				mCounters.add(DM_COUNTER, -total, -unread);
+				mWatermarks.retract(dmWatermark(true), id);
+				mWatermarks.retract(dmWatermark(false), id);
+				return result;
+			}
+		});
 	}
 
 	/**
 	 * @param tableName
 	 * @return the number of rows affected
 	 */
-	public int markAllTweetsRead(String owner, int type) {
-		SQLiteDatabase mDb = mOpenHelper.getWritableDatabase();
-
-		ContentValues values = new ContentValues();
-		values.put(StatusTable.IS_UNREAD, 0);
-
-		return mDb.update(StatusTable.TABLE_NAME, values,
-				StatusTable.STATUS_TYPE + "=" + type, null);
+	/**
+	 * 将某类型的消息全部标记为已读, 在写线程上异步执行
+	 * 
+	 * @return 完成后得到更新的行数
+	 */
+	public Future<Integer> markAllTweetsRead(String owner, final int type) {
+		return mWriter.submit(new Operation<Integer>() {
+			@Override
+			public Integer execute(SQLiteDatabase db) {
+				ContentValues values = new ContentValues();
+				values.put(StatusTable.IS_UNREAD, 0);
+
+				int result = db.update(StatusTable.TABLE_NAME, values,
+						StatusTable.STATUS_TYPE + "=" + type, null);
+				// 与UPDATE一致, 所有用户的该类型消息都已读
+				mCounters.markRead(String.valueOf(type));
+				return result;
+			}
+		});
 	}
 
 	public boolean deleteAllDms() {
-		SQLiteDatabase mDb = mOpenHelper.getWritableDatabase();
-
-		return mDb.delete(MessageTable.TABLE_NAME, null, null) > 0;
+		return mWriter.execute(new Operation<Boolean>() {
+			@Override
+			public Boolean execute(SQLiteDatabase db) {
+				boolean result = db.delete(MessageTable.TABLE_NAME, null, null) > 0;
+				invalidateDmCache();
+				return result;
+			}
+		});
 	}
 
-	public int markAllDmsRead() {
-		SQLiteDatabase mDb = mOpenHelper.getWritableDatabase();
-
-		ContentValues values = new ContentValues();
-		values.put(MessageTable.FIELD_IS_UNREAD, 0);
-
-		return mDb.update(MessageTable.TABLE_NAME, values, null, null);
+	/**
+	 * 将私信全部标记为已读, 在写线程上异步执行
+	 * 
+	 * @return 完成后得到更新的行数
+	 */
+	public Future<Integer> markAllDmsRead() {
+		return mWriter.submit(new Operation<Integer>() {
+			@Override
+			public Integer execute(SQLiteDatabase db) {
+				ContentValues values = new ContentValues();
+				values.put(MessageTable.FIELD_IS_UNREAD, 0);
+
+				int result = db.update(MessageTable.TABLE_NAME, values, null,
+						null);
+				mCounters.markRead(DM_COUNTER);
+				return result;
+			}
+		});
 	}
 
 	public String fetchMaxDmId(boolean isSent) {
-		SQLiteDatabase mDb = mOpenHelper.getReadableDatabase();
-
-		Cursor mCursor = mDb.rawQuery("SELECT " + MessageTable._ID + " FROM "
-				+ MessageTable.TABLE_NAME + " WHERE "
-				+ MessageTable.FIELD_IS_SENT + " = ? " + " ORDER BY "
-				+ MessageTable.FIELD_CREATED_AT + " DESC   LIMIT 1",
-				new String[] { isSent ? "1" : "0" });
-
-		String result = null;
-
-		if (mCursor == null) {
-			return result;
-		}
-
-		mCursor.moveToFirst();
-		if (mCursor.getCount() == 0) {
-			result = null;
-		} else {
-			result = mCursor.getString(0);
-		}
-		mCursor.close();
-
-		return result;
+		return getDmMark(isSent).maxId;
 	}
 
 	public int addNewDmsAndCountUnread(List<Dm> dms) {
@@ -843,66 +1573,94 @@ public class TwitterDatabase {
 	}
 
 	public int fetchDmCount() {
-		SQLiteDatabase mDb = mOpenHelper.getReadableDatabase();
-
-		Cursor mCursor = mDb.rawQuery("SELECT COUNT(" + MessageTable._ID
-				+ ") FROM " + MessageTable.TABLE_NAME, null);
-
-		int result = 0;
-
-		if (mCursor == null) {
-			return result;
-		}
-
-		mCursor.moveToFirst();
-		result = mCursor.getInt(0);
-		mCursor.close();
-
-		return result;
+		return getDmCounts()[0];
 	}
 
-	private int fetchUnreadDmCount() {
-		SQLiteDatabase mDb = mOpenHelper.getReadableDatabase();
-
-		Cursor mCursor = mDb.rawQuery("SELECT COUNT(" + MessageTable._ID
-				+ ") FROM " + MessageTable.TABLE_NAME + " WHERE "
-				+ MessageTable.FIELD_IS_UNREAD + " = 1", null);
-
-		int result = 0;
-
-		if (mCursor == null) {
-			return result;
-		}
-
-		mCursor.moveToFirst();
-		result = mCursor.getInt(0);
-		mCursor.close();
+	public int fetchUnreadDmCount() {
+		return getDmCounts()[1];
+	}
 
-		return result;
+	// 主键冲突时替换已有的私信, 与createDm()一致
+	private static final String INSERT_DM_SQL = "INSERT OR REPLACE INTO "
+			+ MessageTable.TABLE_NAME + " (" + MessageTable._ID + ","
+			+ MessageTable.FIELD_USER_SCREEN_NAME + ","
+			+ MessageTable.FIELD_TEXT + ","
+			+ MessageTable.FIELD_PROFILE_IMAGE_URL + ","
+			+ MessageTable.FIELD_IS_UNREAD + "," + MessageTable.FIELD_IS_SENT
+			+ "," + MessageTable.FIELD_CREATED_AT + ","
+			+ MessageTable.FIELD_USER_ID + ") VALUES (?,?,?,?,?,?,?,?)";
+
+	public void addDms(final List<Dm> dms, final boolean isUnread) {
+		mWriter.execute(new Operation<Void>() {
+			@Override
+			public Void execute(SQLiteDatabase db) {
+				countNewDms(db, dms, isUnread);
+				for (Dm dm : dms) {
+					mWatermarks.extend(dmWatermark(dm.isSent), dm.id,
+							dm.createdAt.getTime());
+				}
+				batchUpdate(INSERT_DM_SQL, dms, new StatementBinder<Dm>() {
+					@Override
+					public void bind(SQLiteStatement statement, Dm dm) {
+						bindString(statement, 1, dm.id);
+						bindString(statement, 2, dm.screenName);
+						bindString(statement, 3, dm.text);
+						bindString(statement, 4, dm.profileImageUrl);
+						statement.bindLong(5, isUnread ? 1 : 0);
+						statement.bindLong(6, dm.isSent ? 1 : 0);
+						statement.bindLong(7, dm.createdAt.getTime());
+						bindString(statement, 8, dm.userId);
+					}
+				});
+				return null;
+			}
+		});
 	}
 
-	public void addDms(List<Dm> dms, boolean isUnread) {
-		SQLiteDatabase mDb = mOpenHelper.getWritableDatabase();
+	/**
+	 * 写入前按主键查出哪些私信已存在, 以增减私信的总数和未读数. INSERT OR REPLACE
+	 * 会替换已存在的私信, 它原来的未读状态被isUnread取代.
+	 */
+	private void countNewDms(SQLiteDatabase db, List<Dm> dms, boolean isUnread) {
+		if (null == mCounters.get(DM_COUNTER)) {
+			// 未加载时无需计算, 读取时会重新统计
+			return;
+		}
 
+		SQLiteStatement lookup = db.compileStatement("SELECT "
+				+ MessageTable.FIELD_IS_UNREAD + " FROM "
+				+ MessageTable.TABLE_NAME + " WHERE " + MessageTable._ID
+				+ " = ?");
+		HashMap<String, Boolean> seen = new HashMap<String, Boolean>();
+		int total = 0;
+		int unread = 0;
 		try {
-			mDb.beginTransaction();
-
 			for (Dm dm : dms) {
-				createDm(dm, isUnread);
+				Boolean wasUnread = seen.get(dm.id);
+				if (null == wasUnread) {
+					try {
+						bindString(lookup, 1, dm.id);
+						wasUnread = 1 == lookup.simpleQueryForLong();
+					} catch (SQLiteDoneException e) {
+						// 新私信
+						total++;
+						wasUnread = false;
+					}
+				}
+				unread += (isUnread ? 1 : 0) - (wasUnread ? 1 : 0);
+				seen.put(dm.id, isUnread);
 			}
-
-			// limitRows(TABLE_DIRECTMESSAGE, TwitterApi.RETRIEVE_LIMIT);
-			mDb.setTransactionSuccessful();
 		} finally {
-			mDb.endTransaction();
+			lookup.close();
 		}
+		mCounters.add(DM_COUNTER, total, unread);
 	}
 
 	// 2011.03.01 add
 	// UserInfo操作
 
 	public Cursor getAllUserInfo() {
-		SQLiteDatabase mDb = mOpenHelper.getReadableDatabase();
+		SQLiteDatabase mDb = getReadDb();
 		return mDb.query(UserInfoTable.TABLE_NAME, UserInfoTable.TABLE_COLUMNS,
 				null, null, null, null, null);
 	}
@@ -914,7 +1672,7 @@ public class TwitterDatabase {
 	 * @return
 	 */
 	public Cursor getUserInfoByIds(String[] userIds) {
-		SQLiteDatabase mDb = mOpenHelper.getReadableDatabase();
+		SQLiteDatabase mDb = getReadDb();
 		String userIdStr = "";
 		for (String id : userIds) {
 			userIdStr += "'" + id + "',";
@@ -936,8 +1694,6 @@ public class TwitterDatabase {
 	 * @return the row ID of the newly inserted row, or -1 if an error occurred
 	 */
 	public long createUserInfo(com.ch_linghu.fanfoudroid.data.User user) {
-		SQLiteDatabase mDb = mOpenHelper.getWritableDatabase();
-
 		ContentValues initialValues = new ContentValues();
 		initialValues.put(UserInfoTable._ID, user.id);
 		initialValues.put(UserInfoTable.FIELD_USER_NAME, user.name);
@@ -961,8 +1717,7 @@ public class TwitterDatabase {
 
 		// long rowId = mDb.insertWithOnConflict(UserInfoTable.TABLE_NAME, null,
 		// initialValues,SQLiteDatabase.CONFLICT_REPLACE);
-		long rowId = insertWithOnConflict(mDb, UserInfoTable.TABLE_NAME, null,
-				initialValues, CONFLICT_REPLACE);
+		long rowId = replaceUser(initialValues);
 		if (-1 == rowId) {
 			Log.e(TAG, "Cann't create user : " + user.id);
 		} else {
@@ -971,6 +1726,34 @@ public class TwitterDatabase {
 		return rowId;
 	}
 
+	/**
+	 * 在写线程上插入或替换一个用户, 并清空用户摘要缓存
+	 */
+	private long replaceUser(final ContentValues values) {
+		return mWriter.execute(new Operation<Long>() {
+			@Override
+			public Long execute(SQLiteDatabase db) {
+				mUserHashes.clear();
+				return insertWithOnConflict(db, UserInfoTable.TABLE_NAME, null,
+						values, CONFLICT_REPLACE);
+			}
+		});
+	}
+
+	/**
+	 * 在写线程上更新一个用户, 并清空用户摘要缓存
+	 */
+	private boolean updateUserRow(final String uid, final ContentValues values) {
+		return mWriter.execute(new Operation<Boolean>() {
+			@Override
+			public Boolean execute(SQLiteDatabase db) {
+				mUserHashes.clear();
+				return db.update(UserInfoTable.TABLE_NAME, values,
+						UserInfoTable._ID + "='" + uid + "'", null) > 0;
+			}
+		});
+	}
+
 	// SQLiteDatabase.insertWithConflict是LEVEL 8(2.2)才引入的新方法
 	// 为了兼容旧版，这里给出一个简化的兼容实现
 	// 要注意的是这个实现和标准的函数行为并不完全一致
@@ -988,7 +1771,6 @@ public class TwitterDatabase {
 	}
 
 	public long createWeiboUserInfo(com.ch_linghu.fanfoudroid.fanfou.User user) {
-		SQLiteDatabase mDb = mOpenHelper.getWritableDatabase();
 		ContentValues args = new ContentValues();
 
 		args.put(UserInfoTable._ID, user.getId());
@@ -1029,8 +1811,7 @@ public class TwitterDatabase {
 		// 省去判断existUser，如果存在数据则replace
 		// long rowId=mDb.insertWithOnConflict(UserInfoTable.TABLE_NAME, null,
 		// args, SQLiteDatabase.CONFLICT_REPLACE);
-		long rowId = insertWithOnConflict(mDb, UserInfoTable.TABLE_NAME, null,
-				args, CONFLICT_REPLACE);
+		long rowId = replaceUser(args);
 
 		if (-1 == rowId) {
 			Log.e(TAG, "Cann't createWeiboUserInfo : " + user.getId());
@@ -1047,7 +1828,7 @@ public class TwitterDatabase {
 	 * @return
 	 */
 	public boolean existsUser(String userId) {
-		SQLiteDatabase Db = mOpenHelper.getReadableDatabase();
+		SQLiteDatabase Db = getReadDb();
 		boolean result = false;
 
 		Cursor cursor = Db.query(UserInfoTable.TABLE_NAME,
@@ -1069,7 +1850,7 @@ public class TwitterDatabase {
 	 * @return
 	 */
 	public Cursor getUserInfoById(String userId) {
-		SQLiteDatabase Db = mOpenHelper.getReadableDatabase();
+		SQLiteDatabase Db = getReadDb();
 
 		Cursor cursor = Db.query(UserInfoTable.TABLE_NAME,
 				UserInfoTable.TABLE_COLUMNS, UserInfoTable._ID + " = '"
@@ -1086,9 +1867,7 @@ public class TwitterDatabase {
 	 * @return
 	 */
 	public boolean updateUser(String uid, ContentValues args) {
-		SQLiteDatabase Db = mOpenHelper.getWritableDatabase();
-		return Db.update(UserInfoTable.TABLE_NAME, args, UserInfoTable._ID
-				+ "='" + uid + "'", null) > 0;
+		return updateUserRow(uid, args);
 	}
 
 	/**
@@ -1096,7 +1875,6 @@ public class TwitterDatabase {
 	 */
 	public boolean updateUser(com.ch_linghu.fanfoudroid.data.User user) {
 
-		SQLiteDatabase Db = mOpenHelper.getWritableDatabase();
 		ContentValues args = new ContentValues();
 		args.put(UserInfoTable._ID, user.id);
 		args.put(UserInfoTable.FIELD_USER_NAME, user.name);
@@ -1113,8 +1891,7 @@ public class TwitterDatabase {
 		args.put(UserInfoTable.FIELD_STATUSES_COUNT, user.statusesCount);
 		args.put(UserInfoTable.FIELD_FOLLOWING, user.isFollowing);
 
-		return Db.update(UserInfoTable.TABLE_NAME, args, UserInfoTable._ID
-				+ "='" + user.id + "'", null) > 0;
+		return updateUserRow(user.id, args);
 	}
 
 	/**
@@ -1125,7 +1902,6 @@ public class TwitterDatabase {
 	 */
 	public boolean updateWeiboUser(com.ch_linghu.fanfoudroid.fanfou.User user) {
 
-		SQLiteDatabase Db = mOpenHelper.getWritableDatabase();
 		ContentValues args = new ContentValues();
 
 		args.put(UserInfoTable._ID, user.getName());
@@ -1161,51 +1937,90 @@ public class TwitterDatabase {
 
 		args.put(UserInfoTable.FIELD_FOLLOWING, user.isFollowing());
 
-		return Db.update(UserInfoTable.TABLE_NAME, args, UserInfoTable._ID
-				+ "='" + user.getId() + "'", null) > 0;
+		return updateUserRow(user.getId(), args);
 
 	}
 
+	// 列的顺序与syncUsers()/syncWeiboUsers()的绑定一致,
+	// userinfo的主键声明了on conflict replace, 已存在的用户被替换
+	private static final String INSERT_USER_SQL = "INSERT OR REPLACE INTO "
+			+ UserInfoTable.TABLE_NAME + " (" + UserInfoTable._ID + ","
+			+ UserInfoTable.FIELD_USER_NAME + ","
+			+ UserInfoTable.FIELD_USER_SCREEN_NAME + ","
+			+ UserInfoTable.FIELD_LOCALTION + ","
+			+ UserInfoTable.FIELD_DESCRIPTION + ","
+			+ UserInfoTable.FIELD_PROFILE_IMAGE_URL + ","
+			+ UserInfoTable.FIELD_URL + "," + UserInfoTable.FIELD_PROTECTED
+			+ "," + UserInfoTable.FIELD_FOLLOWERS_COUNT + ","
+			+ UserInfoTable.FIELD_LAST_STATUS + ","
+			+ UserInfoTable.FIELD_FRIENDS_COUNT + ","
+			+ UserInfoTable.FIELD_FAVORITES_COUNT + ","
+			+ UserInfoTable.FIELD_STATUSES_COUNT + ","
+			+ UserInfoTable.FIELD_FOLLOWING
+			+ ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
 	/**
 	 * 同步用户,更新已存在的用户,插入未存在的用户
 	 */
 	public void syncUsers(List<com.ch_linghu.fanfoudroid.data.User> users) {
-		SQLiteDatabase mDb = mOpenHelper.getWritableDatabase();
-		try {
-			mDb.beginTransaction();
-			for (com.ch_linghu.fanfoudroid.data.User u : users) {
-				// if(existsUser(u.id)){
-				// updateUser(u);
-				// }else{
-				// createUserInfo(u);
-				// }
-				createUserInfo(u);
-			}
-			mDb.setTransactionSuccessful();
-		} finally {
-			mDb.endTransaction();
+		List<Object[]> rows = new ArrayList<Object[]>(users.size());
+		for (com.ch_linghu.fanfoudroid.data.User user : users) {
+			rows.add(new Object[] { user.id, user.name, user.screenName,
+					user.location, user.description, user.profileImageUrl,
+					user.url, user.isProtected, user.followersCount,
+					user.lastStatus, user.friendsCount, user.favoritesCount,
+					user.statusesCount, user.isFollowing });
 		}
-
+		syncUserRows(rows);
 	}
 
 	public void syncWeiboUsers(List<com.ch_linghu.fanfoudroid.fanfou.User> users) {
-		SQLiteDatabase mDb = mOpenHelper.getWritableDatabase();
-
-		try {
-			mDb.beginTransaction();
-			for (com.ch_linghu.fanfoudroid.fanfou.User u : users) {
-				// if (existsUser(u.getId())) {
-				// updateWeiboUser(u);
-				// } else {
-				// createWeiboUserInfo(u);
-				// }
-				createWeiboUserInfo(u);
-			}
-			mDb.setTransactionSuccessful();
-		} finally {
-			mDb.endTransaction();
+		List<Object[]> rows = new ArrayList<Object[]>(users.size());
+		for (com.ch_linghu.fanfoudroid.fanfou.User user : users) {
+			rows.add(new Object[] { user.getId(), user.getName(),
+					user.getScreenName(), user.getLocation(),
+					user.getDescription(),
+					user.getProfileImageURL().toString(),
+					null == user.getURL() ? null : user.getURL().toString(),
+					user.isProtected(), user.getFollowersCount(),
+					user.getStatusSource(), user.getFriendsCount(),
+					user.getFavouritesCount(), user.getStatusesCount(),
+					user.isFollowing() });
 		}
+		syncUserRows(rows);
+	}
 
+	/**
+	 * 写入内容散列与上次同步不同的用户, 未变化的用户被跳过
+	 * 
+	 * @param rows
+	 *            按INSERT_USER_SQL的列顺序, 第一列为用户ID
+	 */
+	private static void syncUserRows(final List<Object[]> rows) {
+		mWriter.execute(new Operation<Void>() {
+			@Override
+			public Void execute(SQLiteDatabase db) {
+				List<Object[]> changed = new ArrayList<Object[]>();
+				int[] hashes = new int[rows.size()];
+				for (Object[] row : rows) {
+					int hash = Arrays.hashCode(row);
+					Integer last = mUserHashes.get(row[0]);
+					if (null == last || last.intValue() != hash) {
+						hashes[changed.size()] = hash;
+						changed.add(row);
+					}
+				}
+				if (!changed.isEmpty()) {
+					mSqlTemplate.batchUpdate(INSERT_USER_SQL, changed);
+					for (int i = 0; i < changed.size(); i++) {
+						mUserHashes.put((String) changed.get(i)[0], hashes[i]);
+					}
+				}
+				Log.v(TAG, "syncUsers: " + changed.size() + " of "
+						+ rows.size() + " users changed");
+				return null;
+			}
+		});
 	}
 
 }
@@ -45,7 +45,7 @@ public final class UserInfoTable implements BaseColumns {
 			+ FIELD_FOLLOWERS_COUNT + " integer, " + FIELD_FRIENDS_COUNT
 			+ " integer, " + FIELD_FAVORITES_COUNT + " integer, "
 			+ FIELD_STATUSES_COUNT + " integer, " + FIELD_LAST_STATUS
-			+ " text, " + FIELD_CREATED_AT + " date, " + FIELD_FOLLOWING
+			+ " text, " + FIELD_CREATED_AT + " integer, " + FIELD_FOLLOWING
 			+ " boolean "
 			// +FIELD_FOLLOWER_IDS+" text"
 			+ ")";
@@ -0,0 +1,118 @@
+package com.ch_linghu.fanfoudroid.db;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 每类消息中最新和最旧一条的ID(按created_at), 用于构造since_id/max_id分页参数
+ * 
+ * 与MessageCounters一样只在写线程上更新, 在写线程之外删除消息时失效; 写事务提交时增加
+ * 版本号, 因此可以在只读连接上加载.
+ */
+final class Watermarks {
+
+	/**
+	 * 一类消息的最新和最旧一条, 没有消息时ID为null
+	 */
+	static final class Mark {
+		String maxId;
+		long maxTime;
+		String minId;
+		long minTime;
+
+		Mark copy() {
+			Mark mark = new Mark();
+			mark.maxId = maxId;
+			mark.maxTime = maxTime;
+			mark.minId = minId;
+			mark.minTime = minTime;
+			return mark;
+		}
+	}
+
+	private final Map<String, Mark> mMarks = new HashMap<String, Mark>();
+	private long mVersion = 0;
+
+	/**
+	 * @return 未缓存时返回null
+	 */
+	synchronized Mark get(String key) {
+		Mark mark = mMarks.get(key);
+		return (null == mark) ? null : mark.copy();
+	}
+
+	synchronized long getVersion() {
+		return mVersion;
+	}
+
+	/**
+	 * 写事务提交后调用, 使提交之前开始的加载作废
+	 */
+	synchronized void onCommit() {
+		mVersion++;
+	}
+
+	/**
+	 * @param version
+	 *            开始查询前的版本号
+	 * @return 查询期间有修改时返回false, 结果不被缓存
+	 */
+	synchronized boolean put(String key, long version, Mark mark) {
+		if (version != mVersion) {
+			return false;
+		}
+		mMarks.put(key, mark.copy());
+		return true;
+	}
+
+	/**
+	 * 写入一条消息后调用, 未缓存时忽略
+	 */
+	synchronized void extend(String key, String id, long time) {
+		mVersion++;
+		Mark mark = mMarks.get(key);
+		if (null == mark) {
+			return;
+		}
+		if (null == mark.maxId || time > mark.maxTime) {
+			mark.maxId = id;
+			mark.maxTime = time;
+		}
+		if (null == mark.minId || time < mark.minTime) {
+			mark.minId = id;
+			mark.minTime = time;
+		}
+	}
+
+	/**
+	 * 删除一条消息后调用, 删除的是最新或最旧一条时使记录失效
+	 */
+	synchronized void retract(String key, String id) {
+		mVersion++;
+		Mark mark = mMarks.get(key);
+		if (null != mark && (id.equals(mark.maxId) || id.equals(mark.minId))) {
+			mMarks.remove(key);
+		}
+	}
+
+	/**
+	 * 使group中的记录失效
+	 * 
+	 * @see MessageCounters#inGroup(String, String)
+	 */
+	synchronized void invalidate(String group) {
+		mVersion++;
+		Iterator<String> it = mMarks.keySet().iterator();
+		while (it.hasNext()) {
+			if (MessageCounters.inGroup(it.next(), group)) {
+				it.remove();
+			}
+		}
+	}
+
+	synchronized void invalidateAll() {
+		mVersion++;
+		mMarks.clear();
+	}
+}
@@ -26,11 +26,11 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 package com.ch_linghu.fanfoudroid.fanfou;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.w3c.dom.Document;
@@ -38,7 +38,9 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
 import com.ch_linghu.fanfoudroid.http.HttpException;
+import com.ch_linghu.fanfoudroid.http.JSONArrayReader;
 import com.ch_linghu.fanfoudroid.http.Response;
+import com.ch_linghu.fanfoudroid.http.ResponseException;
 
 /**
  * A data class representing sent/received direct message.
@@ -185,18 +187,23 @@ public class DirectMessage extends WeiboResponse implements
 	/* package */
 	static List<DirectMessage> constructDirectMessages(Response res)
 			throws HttpException {
-		JSONArray list = res.asJSONArray();
+		if (res.isNotModified()) {
+			return new ArrayList<DirectMessage>(0);
+		}
+		JSONArrayReader reader = res.asJSONArrayReader();
 
 		try {
-			int size = list.length();
-			List<DirectMessage> messages = new ArrayList<DirectMessage>(size);
-			for (int i = 0; i < size; i++) {
-
-				messages.add(new DirectMessage(list.getJSONObject(i)));
+			List<DirectMessage> messages = new ArrayList<DirectMessage>();
+			while (reader.hasNext()) {
+				messages.add(new DirectMessage(reader.nextObject()));
 			}
 			return messages;
 		} catch (JSONException jsone) {
 			throw new HttpException(jsone);
+		} catch (IOException ioe) {
+			throw new ResponseException(ioe.getMessage(), ioe);
+		} finally {
+			reader.close();
 		}
 	}
 
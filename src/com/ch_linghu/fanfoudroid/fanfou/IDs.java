@@ -26,8 +26,6 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 package com.ch_linghu.fanfoudroid.fanfou;
 
-import java.util.Arrays;
-
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.w3c.dom.Element;
@@ -35,6 +33,7 @@ import org.w3c.dom.NodeList;
 
 import com.ch_linghu.fanfoudroid.http.HttpException;
 import com.ch_linghu.fanfoudroid.http.Response;
+import com.ch_linghu.fanfoudroid.util.IdSet;
 
 /**
  * A data class representing array of numeric IDs.
@@ -42,7 +41,7 @@ import com.ch_linghu.fanfoudroid.http.Response;
  * @author Yusuke Yamamoto - yusuke at mac.com
  */
 public class IDs extends WeiboResponse {
-	private String[] ids;
+	private IdSet ids;
 	private long previousCursor;
 	private long nextCursor;
 	private static final long serialVersionUID = -6585026560164704953L;
@@ -53,10 +52,10 @@ public class IDs extends WeiboResponse {
 		Element elem = res.asDocument().getDocumentElement();
 		ensureRootNodeNameIs(ROOT_NODE_NAMES, elem);
 		NodeList idlist = elem.getElementsByTagName("id");
-		ids = new String[idlist.getLength()];
+		IdSet.Builder builder = new IdSet.Builder(idlist.getLength());
 		for (int i = 0; i < idlist.getLength(); i++) {
 			try {
-				ids[i] = idlist.item(i).getFirstChild().getNodeValue();
+				builder.add(idlist.item(i).getFirstChild().getNodeValue());
 			} catch (NumberFormatException nfe) {
 				throw new HttpException(
 						"Weibo API returned malformed response(Invalid Number): "
@@ -67,6 +66,7 @@ public class IDs extends WeiboResponse {
 						npe);
 			}
 		}
+		ids = builder.build();
 		previousCursor = getChildLong("previous_cursor", elem);
 		nextCursor = getChildLong("next_cursor", elem);
 	}
@@ -79,10 +79,11 @@ public class IDs extends WeiboResponse {
 		JSONArray jsona = res.asJSONArray();
 		try {
 			int size = jsona.length();
-			ids = new String[size];
+			IdSet.Builder builder = new IdSet.Builder(size);
 			for (int i = 0; i < size; i++) {
-				ids[i] = jsona.getString(i);
+				builder.add(jsona.getString(i));
 			}
+			ids = builder.build();
 
 		} catch (JSONException jsone) {
 			throw new HttpException(jsone);
@@ -90,7 +91,14 @@ public class IDs extends WeiboResponse {
 
 	}
 
+	/**
+	 * @return 按升序排列的ID, 不保留API返回的顺序
+	 */
 	public String[] getIDs() {
+		return ids.toArray();
+	}
+
+	public IdSet getIdSet() {
 		return ids;
 	}
 
@@ -135,7 +143,7 @@ public class IDs extends WeiboResponse {
 
 		IDs iDs = (IDs) o;
 
-		if (!Arrays.equals(ids, iDs.ids))
+		if (ids != null ? !ids.equals(iDs.ids) : iDs.ids != null)
 			return false;
 
 		return true;
@@ -143,11 +151,11 @@ public class IDs extends WeiboResponse {
 
 	@Override
 	public int hashCode() {
-		return ids != null ? Arrays.hashCode(ids) : 0;
+		return ids != null ? ids.hashCode() : 0;
 	}
 
 	public int getCount() {
-		return ids.length;
+		return ids.size();
 	}
 
 	@Override
@@ -26,11 +26,11 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 package com.ch_linghu.fanfoudroid.fanfou;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.w3c.dom.Document;
@@ -40,7 +40,9 @@ import org.w3c.dom.NodeList;
 import android.text.TextUtils;
 
 import com.ch_linghu.fanfoudroid.http.HttpException;
+import com.ch_linghu.fanfoudroid.http.JSONArrayReader;
 import com.ch_linghu.fanfoudroid.http.Response;
+import com.ch_linghu.fanfoudroid.http.ResponseException;
 
 /**
  * A data class representing one single status of a user.
@@ -423,18 +425,23 @@ public class Status extends WeiboResponse implements java.io.Serializable {
 	/* modify by sycheng add json call method */
 	/* package */
 	static List<Status> constructStatuses(Response res) throws HttpException {
+		if (res.isNotModified()) {
+			return new ArrayList<Status>(0);
+		}
+		// 以流的方式逐条解析, 避免缓存整个响应体及构造整个JSONArray
+		JSONArrayReader reader = res.asJSONArrayReader();
 		try {
-			JSONArray list = res.asJSONArray();
-			int size = list.length();
-			List<Status> statuses = new ArrayList<Status>(size);
-			for (int i = 0; i < size; i++) {
-				statuses.add(new Status(list.getJSONObject(i)));
+			List<Status> statuses = new ArrayList<Status>();
+			while (reader.hasNext()) {
+				statuses.add(new Status(reader.nextObject()));
 			}
 			return statuses;
 		} catch (JSONException jsone) {
 			throw new HttpException(jsone);
-		} catch (HttpException te) {
-			throw te;
+		} catch (IOException ioe) {
+			throw new ResponseException(ioe.getMessage(), ioe);
+		} finally {
+			reader.close();
 		}
 	}
 
@@ -28,7 +28,6 @@ package com.ch_linghu.fanfoudroid.fanfou;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -44,7 +43,6 @@ import org.w3c.dom.NodeList;
 import android.database.Cursor;
 import android.util.Log;
 
-import com.ch_linghu.fanfoudroid.db.MessageTable;
 import com.ch_linghu.fanfoudroid.db.TwitterDatabase;
 import com.ch_linghu.fanfoudroid.db.UserInfoTable;
 import com.ch_linghu.fanfoudroid.http.HttpException;
@@ -419,6 +417,9 @@ public class User extends WeiboResponse implements java.io.Serializable {
 	}
 
 	public static List<User> constructUsers(Response res) throws HttpException {
+		if (res.isNotModified()) {
+			return new ArrayList<User>(0);
+		}
 		try {
 			JSONArray list = res.asJSONArray();
 			int size = list.length();
@@ -737,17 +738,8 @@ public class User extends WeiboResponse implements java.io.Serializable {
 		u.following = (0 == cursor.getInt(cursor
 				.getColumnIndex(UserInfoTable.FIELD_FOLLOWING))) ? false : true;
 
-		try {
-			String createAtStr = cursor.getString(cursor
-					.getColumnIndex(MessageTable.FIELD_CREATED_AT));
-			if (createAtStr != null) {
-				u.createdAt = TwitterDatabase.DB_DATE_FORMATTER
-						.parse(createAtStr);
-			}
-
-		} catch (ParseException e) {
-			Log.w("User", "Invalid created at data.");
-		}
+		u.createdAt = TwitterDatabase.getDate(cursor,
+				cursor.getColumnIndex(UserInfoTable.FIELD_CREATED_AT));
 		return u;
 	}
 
@@ -292,6 +292,27 @@ public class Weibo extends WeiboSupport implements java.io.Serializable {
 	 */
 	protected Response get(String url, ArrayList<BasicNameValuePair> params,
 			boolean authenticated) throws HttpException {
+		return get(url, params, authenticated, false);
+	}
+
+	/**
+	 * Issues an HTTP GET request.
+	 * 
+	 * @param url
+	 *            the request url
+	 * @param params
+	 *            the request parameters
+	 * @param authenticate
+	 *            if true, the request will be sent with BASIC authentication
+	 *            header
+	 * @param conditional
+	 *            if true, the request will be sent with If-None-Match /
+	 *            If-Modified-Since headers, see Response#isNotModified()
+	 * @return the response
+	 * @throws HttpException
+	 */
+	protected Response get(String url, ArrayList<BasicNameValuePair> params,
+			boolean authenticated, boolean conditional) throws HttpException {
 		if (url.indexOf("?") == -1) {
 			url += "?source=" + APP_SOURCE;
 		} else if (url.indexOf("source") == -1) {
@@ -305,7 +326,7 @@ public class Weibo extends WeiboSupport implements java.io.Serializable {
 			url += "&" + HttpClient.encodeParameters(params);
 		}
 
-		return http.get(url, authenticated);
+		return http.get(url, authenticated, conditional);
 	}
 
 	/**
@@ -347,7 +368,10 @@ public class Weibo extends WeiboSupport implements java.io.Serializable {
 						.valueOf(paging.getCount())));
 			}
 
-			return get(url, params, authenticate);
+			// 只有刷新(since_id)时才发送条件请求, 此时304等同于没有新消息
+			boolean conditional = "" != paging.getSinceId()
+					&& "" == paging.getMaxId();
+			return get(url, params, authenticate, conditional);
 		} else {
 			return get(url, params, authenticate);
 		}
@@ -438,8 +462,11 @@ public class Weibo extends WeiboSupport implements java.io.Serializable {
 	}
 
 	public RateLimitStatus getRateLimitStatus() throws HttpException {
-		return new RateLimitStatus(get(getBaseURL()
+		RateLimitStatus status = new RateLimitStatus(get(getBaseURL()
 				+ "account/rate_limit_status.json", true), this);
+		http.getRateLimiter().seed(status.getRemainingHits(),
+				status.getHourlyLimit());
+		return status;
 	}
 
 	/**
@@ -46,6 +46,7 @@ import org.w3c.dom.NodeList;
 import com.ch_linghu.fanfoudroid.http.HTMLEntity;
 import com.ch_linghu.fanfoudroid.http.HttpException;
 import com.ch_linghu.fanfoudroid.http.Response;
+import com.ch_linghu.fanfoudroid.util.FanfouDateParser;
 
 /**
  * Super class of Weibo Response objects.
@@ -56,7 +57,13 @@ import com.ch_linghu.fanfoudroid.http.Response;
  * @author Yusuke Yamamoto - yusuke at mac.com
  */
 public class WeiboResponse implements java.io.Serializable {
-	private static Map<String, SimpleDateFormat> formatMap = new HashMap<String, SimpleDateFormat>();
+	// SimpleDateFormat is not thread safe, 每个线程使用各自的实例
+	private static final ThreadLocal<Map<String, SimpleDateFormat>> formatMap = new ThreadLocal<Map<String, SimpleDateFormat>>() {
+		@Override
+		protected Map<String, SimpleDateFormat> initialValue() {
+			return new HashMap<String, SimpleDateFormat>();
+		}
+	};
 	private static final long serialVersionUID = 3519962197957449562L;
 	private transient int rateLimitLimit = -1;
 	private transient int rateLimitRemaining = -1;
@@ -203,23 +210,35 @@ public class WeiboResponse implements java.io.Serializable {
 		if (str == null || "".equals(str)) {
 			return null;
 		}
-		SimpleDateFormat sdf = formatMap.get(format);
+		if (isCreatedAtFormat(format)) {
+			Date date = FanfouDateParser.parse(str);
+			if (null != date) {
+				return date;
+			}
+		}
+		Map<String, SimpleDateFormat> formats = formatMap.get();
+		SimpleDateFormat sdf = formats.get(format);
 		if (null == sdf) {
 			sdf = new SimpleDateFormat(format, Locale.US);
 			sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
-			formatMap.put(format, sdf);
+			formats.put(format, sdf);
 		}
 		try {
-			synchronized (sdf) {
-				// SimpleDateFormat is not thread safe
-				return sdf.parse(str);
-			}
+			return sdf.parse(str);
 		} catch (ParseException pe) {
 			throw new HttpException("Unexpected format(" + str
 					+ ") returned from sina.com.cn");
 		}
 	}
 
+	/**
+	 * created_at的格式, 可由FanfouDateParser直接解析
+	 */
+	private static boolean isCreatedAtFormat(String format) {
+		return "EEE MMM dd HH:mm:ss z yyyy".equals(format)
+				|| "EEE MMM d HH:mm:ss z yyyy".equals(format);
+	}
+
 	protected static int getInt(String key, JSONObject json)
 			throws JSONException {
 		String str = json.getString(key);
@@ -8,28 +8,27 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.GZIPInputStream;
 
-import javax.net.ssl.SSLHandshakeException;
-
 import org.apache.http.Header;
 import org.apache.http.HeaderElement;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.HttpVersion;
-import org.apache.http.NoHttpResponseException;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.AuthState;
 import org.apache.http.auth.Credentials;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.HttpRequestRetryHandler;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
@@ -37,6 +36,7 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.ClientContext;
 import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
 import org.apache.http.conn.params.ConnRoutePNames;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
@@ -49,6 +49,7 @@ import org.apache.http.entity.mime.content.StringBody;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.BasicHttpParams;
@@ -133,6 +134,7 @@ public class HttpClient {
 	public static final int RETRIED_TIME = 3;
 
 	private static final String SERVER_HOST = "api.fanfou.com";
+	private static final String RATE_LIMIT_STATUS_PATH = "/account/rate_limit_status";
 
 	private DefaultHttpClient mClient;
 	private AuthScope mAuthScope;
@@ -143,6 +145,28 @@ public class HttpClient {
 	private OAuthClient mOAuthClient;
 	private String mOAuthBaseUrl = Configuration.getOAuthBaseUrl();;
 
+	// ETag/Last-Modified of conditional GETs
+	private final ValidatorStore mValidatorStore = new ValidatorStore();
+
+	// Disk cache of read-only API calls, may be null
+	private ResponseCache mResponseCache;
+	// Keys being revalidated in background
+	private final Set<String> mRevalidating = new HashSet<String>();
+	private static ExecutorService sRevalidateExecutor;
+
+	// Share one network call between identical in-flight GETs
+	private final RequestCoalescer mCoalescer = new RequestCoalescer();
+
+	private RetryPolicy mRetryPolicy = RetryPolicy.DEFAULT;
+
+	// Client side quota of API calls
+	private final RateLimiter mRateLimiter = new RateLimiter();
+
+	// 按优先级调度请求, 用户操作优先于后台任务
+	private final RequestScheduler mScheduler = new RequestScheduler();
+
+	private final HttpMetrics mMetrics = HttpMetrics.getInstance();
+
 	private static boolean isAuthenticationEnabled = false;
 
 	public HttpClient() {
@@ -243,7 +267,12 @@ public class HttpClient {
 
 		// Create and initialize HTTP parameters
 		HttpParams params = new BasicHttpParams();
-		ConnManagerParams.setMaxTotalConnections(params, 10);
+		ConnManagerParams.setMaxTotalConnections(params,
+				RequestScheduler.DEFAULT_MAX_CONCURRENT);
+		// 几乎所有请求都发往同一主机, 默认每个route只有2个连接, 会让调度器放行的请求
+		// 在连接池中排队
+		ConnManagerParams.setMaxConnectionsPerRoute(params,
+				new ConnPerRouteBean(RequestScheduler.DEFAULT_MAX_CONCURRENT));
 		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
 
 		// Create and initialize scheme registry
@@ -261,6 +290,10 @@ public class HttpClient {
 		// Support GZIP
 		mClient.addResponseInterceptor(gzipResponseIntercepter);
 
+		// 重试由httpRequest()中的RetryPolicy负责, 底层不再自动重试
+		mClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(
+				0, false));
+
 		// TODO: need to release this connection in httpRequest()
 		// cm.releaseConnection(conn, validDuration, timeUnit);
 		// httpclient.getConnectionManager().shutdown();
@@ -350,6 +383,10 @@ public class HttpClient {
 			return -1;
 		}
 
+		HttpEntity getCompressedEntity() {
+			return wrappedEntity;
+		}
+
 	}
 
 	/**
@@ -361,6 +398,8 @@ public class HttpClient {
 	public void setCredentials(String username, String password) {
 		mUserId = username;
 		mPassword = password;
+		// 校验信息与用户相关, 切换用户后不再有效
+		mValidatorStore.clear();
 		// FOR TEST: disable Basic auth
 		//mClient.getCredentialsProvider().setCredentials(mAuthScope,
 		//		new UsernamePasswordCredentials(username, password));
@@ -421,8 +460,116 @@ public class HttpClient {
 		return httpRequest(url, null, false, HttpGet.METHOD_NAME);
 	}
 
+	/**
+	 * GET请求, 若设置了ResponseCache且该API可缓存, 则优先使用缓存
+	 * 
+	 * @see #setResponseCache(ResponseCache)
+	 */
 	public Response get(String url, boolean authenticated) throws HttpException {
-		return httpRequest(url, null, authenticated, HttpGet.METHOD_NAME);
+		return get(url, authenticated, false);
+	}
+
+	/**
+	 * 设置只读API调用的磁盘缓存
+	 * 
+	 * @param cache
+	 *            null表示不使用缓存
+	 */
+	public void setResponseCache(ResponseCache cache) {
+		mResponseCache = cache;
+	}
+
+	public ResponseCache getResponseCache() {
+		return mResponseCache;
+	}
+
+	/**
+	 * 从缓存获取响应: 未过期直接返回; 过期但仍在stale期限内时返回缓存,
+	 * 并在后台重新获取; 否则请求网络并写入缓存.
+	 */
+	private Response cachedGet(ResponseCache.Rule rule, String url,
+			boolean authenticated) throws HttpException {
+		String key = mUserId + " " + url;
+
+		ResponseCache.Entry entry = mResponseCache.get(key);
+		if (null != entry) {
+			long age = entry.getAge();
+			if (age < rule.ttl) {
+				log("Cache hit: " + url);
+				return new Response(entry.getBody(), true);
+			}
+			if (age < rule.ttl + rule.stale) {
+				log("Cache stale, revalidate: " + url);
+				revalidate(key, url, authenticated);
+				return new Response(entry.getBody(), true);
+			}
+		}
+
+		return fetchAndCache(key, url, authenticated);
+	}
+
+	private Response fetchAndCache(String key, String url,
+			boolean authenticated) throws HttpException {
+		Response res = httpRequest(url, null, authenticated,
+				HttpGet.METHOD_NAME);
+		byte[] body = res.asByteArray();
+		mResponseCache.put(key, body);
+		return new Response(body, false);
+	}
+
+	private void revalidate(final String key, final String url,
+			final boolean authenticated) {
+		synchronized (mRevalidating) {
+			if (!mRevalidating.add(key)) {
+				return;
+			}
+		}
+		getRevalidateExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					fetchAndCache(key, url, authenticated);
+				} catch (HttpException e) {
+					Log.w(TAG, "Revalidate failed: " + url, e);
+				} finally {
+					synchronized (mRevalidating) {
+						mRevalidating.remove(key);
+					}
+				}
+			}
+		});
+	}
+
+	private static synchronized ExecutorService getRevalidateExecutor() {
+		if (null == sRevalidateExecutor) {
+			sRevalidateExecutor = Executors.newSingleThreadExecutor();
+		}
+		return sRevalidateExecutor;
+	}
+
+	/**
+	 * 条件GET请求, 若上次请求同一URL时服务器返回了ETag/Last-Modified,
+	 * 则附加相应的校验头. 内容未改变时不会抛出异常, 而是返回
+	 * Response#isNotModified()为true的空响应, 调用者应将其视为空结果.
+	 * 非条件请求若设置了ResponseCache且该API可缓存, 则优先使用缓存.
+	 * 
+	 * @param url
+	 * @param authenticated
+	 * @param conditional
+	 *            是否发送条件请求
+	 * @return
+	 * @throws HttpException
+	 */
+	public Response get(String url, boolean authenticated, boolean conditional)
+			throws HttpException {
+		if (!conditional && null != mResponseCache) {
+			ResponseCache.Rule rule = mResponseCache.findRule(url);
+			if (null != rule) {
+				return cachedGet(rule, url, authenticated);
+			}
+		}
+		return httpRequest(url, null, null, authenticated,
+				HttpGet.METHOD_NAME, conditional);
 	}
 
 	public Response httpRequest(String url,
@@ -466,6 +613,146 @@ public class HttpClient {
 	public Response httpRequest(String url,
 			ArrayList<BasicNameValuePair> postParams, File file,
 			boolean authenticated, String httpMethod) throws HttpException {
+		return httpRequest(url, postParams, file, authenticated, httpMethod,
+				false);
+	}
+
+	/**
+	 * Execute the DefaultHttpClient
+	 * 
+	 * @param conditional
+	 *            GET请求是否附加If-None-Match/If-Modified-Since校验头,
+	 *            服务器返回304时不抛出异常, 返回Response#isNotModified()为true的响应
+	 * @see #httpRequest(String, ArrayList, File, boolean, String)
+	 */
+	public Response httpRequest(String url,
+			ArrayList<BasicNameValuePair> postParams, File file,
+			boolean authenticated, String httpMethod, boolean conditional)
+			throws HttpException {
+		return httpRequest(url, postParams, file, authenticated, httpMethod,
+				conditional, mRetryPolicy);
+	}
+
+	/**
+	 * Execute the DefaultHttpClient
+	 * 
+	 * @param policy
+	 *            本次请求的重试策略(包括deadline), 代替setRetryPolicy()设置的默认策略.
+	 *            同时进行的相同GET请求被合并时, 使用最先发出的请求的策略
+	 * @see RetryPolicy#withDeadline(long)
+	 * @see #httpRequest(String, ArrayList, File, boolean, String, boolean)
+	 */
+	public Response httpRequest(final String url,
+			final ArrayList<BasicNameValuePair> postParams, final File file,
+			final boolean authenticated, final String httpMethod,
+			final boolean conditional, final RetryPolicy policy)
+			throws HttpException {
+		if (!HttpGet.METHOD_NAME.equalsIgnoreCase(httpMethod)) {
+			return executeWithRetry(url, postParams, file, authenticated,
+					httpMethod, conditional, policy);
+		}
+
+		// 相同的GET请求同时进行时, 只访问一次网络
+		String key = authenticated + " " + conditional + " "
+				+ createRequestKey(url, postParams);
+		return mCoalescer.execute(key, new RequestCoalescer.Fetcher() {
+			@Override
+			public Response fetch() throws HttpException {
+				return executeWithRetry(url, postParams, file, authenticated,
+						httpMethod, conditional, policy);
+			}
+		});
+	}
+
+	/**
+	 * 设置重试策略
+	 * 
+	 * @param policy
+	 *            RetryPolicy.NONE表示不重试
+	 */
+	public void setRetryPolicy(RetryPolicy policy) {
+		mRetryPolicy = policy;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return mRetryPolicy;
+	}
+
+	/**
+	 * @return 请求调度器, 可用于取消排队中的低优先级请求
+	 */
+	public RequestScheduler getScheduler() {
+		return mScheduler;
+	}
+
+	/**
+	 * 按RetryPolicy执行请求, 两次请求之间按退避时间等待. 每次请求前按当前线程的
+	 * RequestPriority排队, 等待重试期间不占用名额. 名额在响应体读完或关闭后才释放.
+	 */
+	private Response executeWithRetry(String url,
+			ArrayList<BasicNameValuePair> postParams, File file,
+			boolean authenticated, String httpMethod, boolean conditional,
+			RetryPolicy policy) throws HttpException {
+		long startTime = System.currentTimeMillis();
+		for (int retries = 0;; retries++) {
+			HttpException error;
+			final RequestScheduler.Ticket ticket = mScheduler
+					.acquire(RequestPriority.current());
+			try {
+				return doHttpRequest(url, postParams, file, authenticated,
+						httpMethod, conditional, new Runnable() {
+							@Override
+							public void run() {
+								mScheduler.release(ticket);
+							}
+						});
+			} catch (HttpException e) {
+				error = e;
+				mScheduler.release(ticket);
+			} catch (RuntimeException e) {
+				mScheduler.release(ticket);
+				throw e;
+			}
+
+			long delay = policy.nextDelay(httpMethod, retries, startTime,
+					error);
+			if (delay < 0) {
+				throw error;
+			}
+			Log.w(TAG, "Retry " + httpMethod + " " + url + " in " + delay
+					+ "ms, cause: " + error.getMessage());
+			mMetrics.recordRetry(url);
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw error;
+			}
+		}
+	}
+
+	/**
+	 * @return 各API的耗时, 流量及错误统计
+	 */
+	public HttpMetrics getMetrics() {
+		return mMetrics;
+	}
+
+	/**
+	 * @return 因合并相同的GET请求而省去的网络请求数
+	 */
+	public int getCoalescedRequestCount() {
+		return mCoalescer.getSavedCount();
+	}
+
+	/**
+	 * @param onComplete
+	 *            响应体读完或被丢弃时执行; 抛出异常时不执行, 由调用者处理
+	 */
+	private Response doHttpRequest(String url,
+			ArrayList<BasicNameValuePair> postParams, File file,
+			boolean authenticated, String httpMethod, boolean conditional,
+			Runnable onComplete) throws HttpException {
 		Log.d(TAG, "Sending " + httpMethod + " request to " + url);
 		if (TwitterApplication.DEBUG) {
 			DebugTimer.betweenStart("HTTP");
@@ -473,6 +760,12 @@ public class HttpClient {
 
 		URI uri = createURI(url);
 
+		boolean isApiRequest = SERVER_HOST.equalsIgnoreCase(uri.getHost());
+		if (isApiRequest && !uri.getPath().startsWith(RATE_LIMIT_STATUS_PATH)) {
+			// 配额不足时推迟低优先级的请求
+			mRateLimiter.acquire(RequestPriority.current());
+		}
+
 		HttpResponse response = null;
 		Response res = null;
 		HttpUriRequest method = null;
@@ -482,18 +775,30 @@ public class HttpClient {
 		// Setup ConnectionParams, Request Headers
 		SetupHTTPConnectionParams(method);
 
+		// Conditional GET
+		String validatorKey = null;
+		boolean validated = false;
+		if (conditional && HttpGet.METHOD_NAME.equalsIgnoreCase(httpMethod)) {
+			validatorKey = createRequestKey(url, postParams);
+			validated = mValidatorStore.attach(validatorKey, method);
+		}
+
 		// Execute Request
+		HttpMetrics.Sample sample = null;
 		try {
 			// 加入OAuth认证信息
 			if (authenticated) {
 				mOAuthClient.signRequest(method);
 			}
+			sample = mMetrics.start(url);
 			response = mClient.execute(method, localcontext);
 			res = new Response(response);
 		} catch (ClientProtocolException e) {
 			Log.e(TAG, e.getMessage(), e);
+			finishSample(sample);
 			throw new HttpException(e.getMessage(), e);
 		} catch (IOException ioe) {
+			finishSample(sample);
 			throw new HttpException(ioe.getMessage(), ioe);
 		} catch (OAuthClientException e) {
 			Log.e(TAG, e.getMessage(), e);
@@ -502,10 +807,45 @@ public class HttpClient {
 
 		if (response != null) {
 			int statusCode = response.getStatusLine().getStatusCode();
-			// It will throw a weiboException while status code is not 200
-			HandleResponseStatusCode(statusCode, res);
+			sample.onResponse(statusCode);
+			if (null != response.getEntity()) {
+				// 响应体读完时才计入统计
+				response.setEntity(new MeteredEntity(response.getEntity(),
+						sample, onComplete));
+			} else {
+				sample.finish();
+				onComplete.run();
+			}
+
+			if (statusCode == NOT_MODIFIED && validated) {
+				// 内容未改变, 无需读取和解析响应体
+				Log.d(TAG, "Not modified: " + url);
+				res.consume();
+			} else {
+				// It will throw a weiboException while status code is not 200
+				try {
+					HandleResponseStatusCode(statusCode, res);
+				} catch (HttpException e) {
+					// 5xx等未读取响应体, 丢弃以归还连接, 否则重试时连接池会被耗尽
+					res.consume();
+					sample.finish();
+					throw e;
+				}
+				if (null != validatorKey) {
+					mValidatorStore.update(validatorKey, response);
+				}
+				if (isApiRequest) {
+					updateRateLimit(response);
+				}
+				if (null != mResponseCache
+						&& !HttpGet.METHOD_NAME.equalsIgnoreCase(httpMethod)) {
+					// 修改操作成功后, 相关的缓存已不再可信
+					mResponseCache.invalidate(url);
+				}
+			}
 		} else {
 			Log.e(TAG, "response is null");
+			onComplete.run();
 		}
 
 		if (TwitterApplication.DEBUG) {
@@ -535,6 +875,58 @@ public class HttpClient {
 		return uri;
 	}
 
+	/**
+	 * @return API调用配额, 可由Weibo#getRateLimitStatus()初始化
+	 */
+	public RateLimiter getRateLimiter() {
+		return mRateLimiter;
+	}
+
+	private static void finishSample(HttpMetrics.Sample sample) {
+		if (null != sample) {
+			sample.finish();
+		}
+	}
+
+	/**
+	 * 若响应中带有X-RateLimit-*头, 以此更新调用配额
+	 * 
+	 * @param response
+	 */
+	private void updateRateLimit(HttpResponse response) {
+		Header limit = response.getFirstHeader("X-RateLimit-Limit");
+		Header remaining = response.getFirstHeader("X-RateLimit-Remaining");
+		if (null == limit || null == remaining) {
+			return;
+		}
+		try {
+			mRateLimiter.seed(Integer.parseInt(remaining.getValue()),
+					Integer.parseInt(limit.getValue()));
+		} catch (NumberFormatException e) {
+			Log.w(TAG, "Invalid rate limit header: " + remaining.getValue()
+					+ "/" + limit.getValue());
+		}
+	}
+
+	/**
+	 * 请求的key, 由用户、URL和参数组成, 用于条件请求及合并相同请求
+	 * 
+	 * @param url
+	 * @param params
+	 * @return
+	 * @throws HttpException
+	 */
+	private String createRequestKey(String url,
+			ArrayList<BasicNameValuePair> params) throws HttpException {
+		StringBuilder key = new StringBuilder();
+		key.append(mUserId).append(' ').append(url);
+		if (null != params && params.size() > 0) {
+			key.append(url.indexOf('?') == -1 ? '?' : '&');
+			key.append(encodeParameters(params));
+		}
+		return key.toString();
+	}
+
 	/**
 	 * 创建可带一个File的MultipartEntity
 	 * 
@@ -571,7 +963,6 @@ public class HttpClient {
 				CONNECTION_TIMEOUT_MS);
 		HttpConnectionParams
 				.setSoTimeout(method.getParams(), SOCKET_TIMEOUT_MS);
-		mClient.setHttpRequestRetryHandler(requestRetryHandler);
 		method.addHeader("Accept-Encoding", "gzip, deflate");
 		method.addHeader("Accept-Charset", "UTF-8,*;q=0.5");
 	}
@@ -762,37 +1153,6 @@ public class HttpClient {
 		return buf.toString();
 	}
 
-	/**
-	 * 异常自动恢复处理, 使用HttpRequestRetryHandler接口实现请求的异常恢复
-	 */
-	private static HttpRequestRetryHandler requestRetryHandler = new HttpRequestRetryHandler() {
-		// 自定义的恢复策略
-		public boolean retryRequest(IOException exception, int executionCount,
-				HttpContext context) {
-			// 设置恢复策略，在发生异常时候将自动重试N次
-			if (executionCount >= RETRIED_TIME) {
-				// Do not retry if over max retry count
-				return false;
-			}
-			if (exception instanceof NoHttpResponseException) {
-				// Retry if the server dropped connection on us
-				return true;
-			}
-			if (exception instanceof SSLHandshakeException) {
-				// Do not retry on SSL handshake exception
-				return false;
-			}
-			HttpRequest request = (HttpRequest) context
-					.getAttribute(ExecutionContext.HTTP_REQUEST);
-			boolean idempotent = (request instanceof HttpEntityEnclosingRequest);
-			if (!idempotent) {
-				// Retry if the request is considered idempotent
-				return true;
-			}
-			return false;
-		}
-	};
-
 	public OAuthClient getOAuthClient() {
 		return mOAuthClient;
 	}
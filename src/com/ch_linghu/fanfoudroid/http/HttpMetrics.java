@@ -0,0 +1,354 @@
+package com.ch_linghu.fanfoudroid.http;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 按API统计网络请求的耗时, 流量及错误
+ *
+ * 每个请求由HttpClient创建一个Sample, 收到响应头时记录首字节时间(TTFB)和状态码,
+ * 响应体读完(或被丢弃)时记录总耗时及压缩前后的字节数. 图片等非API请求按主机名统计.
+ *
+ * <pre>
+ * Log.d(TAG, HttpMetrics.getInstance().dump());
+ * </pre>
+ */
+public class HttpMetrics {
+	private static final String API_HOST = "api.fanfou.com";
+
+	private static final HttpMetrics sInstance = new HttpMetrics();
+
+	public static HttpMetrics getInstance() {
+		return sInstance;
+	}
+
+	/**
+	 * 固定区间的耗时直方图(毫秒), 最后一个区间不设上限
+	 */
+	public static class Histogram {
+		static final long[] BOUNDS = new long[] { 50, 100, 200, 500, 1000,
+				2000, 5000, 10000, 30000 };
+
+		private final long[] mCounts = new long[BOUNDS.length + 1];
+		private long mCount = 0;
+		private long mSum = 0;
+		private long mMax = 0;
+
+		void record(long ms) {
+			int i = 0;
+			while (i < BOUNDS.length && ms > BOUNDS[i]) {
+				i++;
+			}
+			mCounts[i]++;
+			mCount++;
+			mSum += ms;
+			if (ms > mMax) {
+				mMax = ms;
+			}
+		}
+
+		Histogram copy() {
+			Histogram h = new Histogram();
+			System.arraycopy(mCounts, 0, h.mCounts, 0, mCounts.length);
+			h.mCount = mCount;
+			h.mSum = mSum;
+			h.mMax = mMax;
+			return h;
+		}
+
+		public long getCount() {
+			return mCount;
+		}
+
+		public long getMax() {
+			return mMax;
+		}
+
+		public long getMean() {
+			return (mCount == 0) ? 0 : mSum / mCount;
+		}
+
+		/**
+		 * @param percent
+		 *            0-100
+		 * @return 该百分位所在区间的上限, 落在最后一个区间时返回最大值
+		 */
+		public long getPercentile(int percent) {
+			if (mCount == 0) {
+				return 0;
+			}
+			long rank = (mCount * percent + 99) / 100;
+			long seen = 0;
+			for (int i = 0; i < BOUNDS.length; i++) {
+				seen += mCounts[i];
+				if (seen >= rank) {
+					return Math.min(BOUNDS[i], mMax);
+				}
+			}
+			return mMax;
+		}
+	}
+
+	/**
+	 * 一个API的统计数据
+	 */
+	public static class EndpointStats {
+		private long mRequests = 0;
+		private long mErrors = 0;
+		private long mRetries = 0;
+		private long mCompressedBytes = 0;
+		private long mBodyBytes = 0;
+		private Histogram mLatency = new Histogram();
+		private Histogram mTimeToFirstByte = new Histogram();
+		private TreeMap<Integer, Long> mStatusCounts = new TreeMap<Integer, Long>();
+
+		EndpointStats copy() {
+			EndpointStats s = new EndpointStats();
+			s.mRequests = mRequests;
+			s.mErrors = mErrors;
+			s.mRetries = mRetries;
+			s.mCompressedBytes = mCompressedBytes;
+			s.mBodyBytes = mBodyBytes;
+			s.mLatency = mLatency.copy();
+			s.mTimeToFirstByte = mTimeToFirstByte.copy();
+			s.mStatusCounts = new TreeMap<Integer, Long>(mStatusCounts);
+			return s;
+		}
+
+		public long getRequests() {
+			return mRequests;
+		}
+
+		/**
+		 * @return 没有得到响应(I/O错误)或状态码不是2xx/304的请求数
+		 */
+		public long getErrors() {
+			return mErrors;
+		}
+
+		public long getRetries() {
+			return mRetries;
+		}
+
+		/**
+		 * @return 网络上传输的响应体字节数
+		 */
+		public long getCompressedBytes() {
+			return mCompressedBytes;
+		}
+
+		/**
+		 * @return 解压后的响应体字节数
+		 */
+		public long getBodyBytes() {
+			return mBodyBytes;
+		}
+
+		/**
+		 * @return 从发出请求到响应体读完的耗时
+		 */
+		public Histogram getLatency() {
+			return mLatency;
+		}
+
+		/**
+		 * @return 从发出请求到收到响应头的耗时
+		 */
+		public Histogram getTimeToFirstByte() {
+			return mTimeToFirstByte;
+		}
+
+		/**
+		 * @return 状态码 -> 次数, 没有得到响应的请求记为0
+		 */
+		public Map<Integer, Long> getStatusCounts() {
+			return mStatusCounts;
+		}
+	}
+
+	/**
+	 * 一次请求的记录, finish()之后计入统计, 重复调用finish()无效
+	 */
+	public class Sample {
+		private final String mEndpoint;
+		private final long mStartTime;
+		private long mTimeToFirstByte = -1;
+		private int mStatusCode = 0;
+		private long mCompressedBytes = 0;
+		private long mBodyBytes = 0;
+		private boolean mFinished = false;
+
+		private Sample(String endpoint) {
+			mEndpoint = endpoint;
+			mStartTime = System.currentTimeMillis();
+		}
+
+		/**
+		 * 收到响应头
+		 * 
+		 * @param statusCode
+		 */
+		public synchronized void onResponse(int statusCode) {
+			mStatusCode = statusCode;
+			mTimeToFirstByte = System.currentTimeMillis() - mStartTime;
+		}
+
+		synchronized void addCompressedBytes(long n) {
+			mCompressedBytes += n;
+		}
+
+		synchronized void addBodyBytes(long n) {
+			mBodyBytes += n;
+		}
+
+		/**
+		 * 请求结束(响应体已读完或被丢弃, 或者请求失败)
+		 */
+		public void finish() {
+			synchronized (this) {
+				if (mFinished) {
+					return;
+				}
+				mFinished = true;
+			}
+			record(this, System.currentTimeMillis() - mStartTime);
+		}
+	}
+
+	private final Map<String, EndpointStats> mStats = new TreeMap<String, EndpointStats>();
+
+	/**
+	 * 开始记录一次请求
+	 * 
+	 * @param url
+	 * @return Sample
+	 */
+	public Sample start(String url) {
+		return new Sample(getEndpoint(url));
+	}
+
+	/**
+	 * 记录一次重试
+	 * 
+	 * @param url
+	 */
+	public synchronized void recordRetry(String url) {
+		getStats(getEndpoint(url)).mRetries++;
+	}
+
+	private synchronized void record(Sample sample, long latency) {
+		EndpointStats stats = getStats(sample.mEndpoint);
+		stats.mRequests++;
+		int code = sample.mStatusCode;
+		if (code == 0 || (code >= 300 && code != HttpClient.NOT_MODIFIED)) {
+			stats.mErrors++;
+		}
+		Long count = stats.mStatusCounts.get(code);
+		stats.mStatusCounts.put(code, (null == count) ? 1 : count + 1);
+		stats.mCompressedBytes += sample.mCompressedBytes;
+		stats.mBodyBytes += sample.mBodyBytes;
+		stats.mLatency.record(latency);
+		if (sample.mTimeToFirstByte >= 0) {
+			stats.mTimeToFirstByte.record(sample.mTimeToFirstByte);
+		}
+	}
+
+	private EndpointStats getStats(String endpoint) {
+		EndpointStats stats = mStats.get(endpoint);
+		if (null == stats) {
+			stats = new EndpointStats();
+			mStats.put(endpoint, stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * @return 各API统计数据的副本, 按API排序
+	 */
+	public synchronized Map<String, EndpointStats> getSnapshot() {
+		Map<String, EndpointStats> snapshot = new TreeMap<String, EndpointStats>();
+		for (Map.Entry<String, EndpointStats> entry : mStats.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().copy());
+		}
+		return snapshot;
+	}
+
+	public synchronized void reset() {
+		mStats.clear();
+	}
+
+	/**
+	 * @return 可读的统计报告, 每个API一行
+	 */
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, EndpointStats> entry : getSnapshot().entrySet()) {
+			EndpointStats s = entry.getValue();
+			Histogram latency = s.getLatency();
+			Histogram ttfb = s.getTimeToFirstByte();
+			sb.append(entry.getKey()).append(": n=").append(s.getRequests())
+					.append(" err=").append(s.getErrors()).append(" retry=")
+					.append(s.getRetries()).append(" latency(p50/p90/p99/max)=")
+					.append(latency.getPercentile(50)).append('/')
+					.append(latency.getPercentile(90)).append('/')
+					.append(latency.getPercentile(99)).append('/')
+					.append(latency.getMax()).append("ms ttfb(p50/p90)=")
+					.append(ttfb.getPercentile(50)).append('/')
+					.append(ttfb.getPercentile(90)).append("ms bytes(wire/body)=")
+					.append(s.getCompressedBytes()).append('/')
+					.append(s.getBodyBytes()).append(" status=")
+					.append(s.getStatusCounts()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 将URL归为一类API, 去掉扩展名, 参数及其中的ID, 如
+	 * "http://api.fanfou.com/statuses/show/abc.json" -> "statuses/show/:id".
+	 * 其他主机的请求以主机名归类.
+	 * 
+	 * @param url
+	 * @return
+	 */
+	static String getEndpoint(String url) {
+		URI uri;
+		try {
+			uri = new URI(url);
+		} catch (URISyntaxException e) {
+			return "unknown";
+		}
+		String host = uri.getHost();
+		if (null == host) {
+			return "unknown";
+		}
+		if (!API_HOST.equalsIgnoreCase(host)) {
+			return host;
+		}
+
+		String path = uri.getPath();
+		if (null == path) {
+			return "/";
+		}
+		if (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		int dot = path.lastIndexOf('.');
+		if (dot > path.lastIndexOf('/')) {
+			path = path.substring(0, dot);
+		}
+
+		// 前两段是API名称, 之后的都是ID; favorites/<id>例外
+		String[] segments = path.split("/");
+		StringBuilder sb = new StringBuilder(segments[0]);
+		for (int i = 1; i < segments.length; i++) {
+			boolean isId = i >= 2
+					|| ("favorites".equals(segments[0])
+							&& !"create".equals(segments[i]) && !"destroy"
+							.equals(segments[i]));
+			sb.append('/').append(isId ? ":id" : segments[i]);
+		}
+		return sb.toString();
+	}
+}
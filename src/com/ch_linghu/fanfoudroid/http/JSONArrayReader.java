@@ -0,0 +1,178 @@
+package com.ch_linghu.fanfoudroid.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 以流的方式逐个读取JSON数组中的对象
+ *
+ * 不再将整个响应体读入String后再构造整个JSONArray, 而是每次只从流中切出数组中的
+ * 一个元素并交给JSONObject解析, 峰值内存只与单条消息的大小相关.
+ *
+ * <pre>
+ * JSONArrayReader reader = response.asJSONArrayReader();
+ * try {
+ * 	while (reader.hasNext()) {
+ * 		JSONObject json = reader.nextObject();
+ * 	}
+ * } finally {
+ * 	reader.close();
+ * }
+ * </pre>
+ */
+public class JSONArrayReader {
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Reader mReader;
+	private final char[] mBuffer = new char[BUFFER_SIZE];
+	private int mPos = 0;
+	private int mLimit = 0;
+
+	// 复用同一个StringBuilder保存当前元素的文本
+	private final StringBuilder mElement = new StringBuilder(1024);
+
+	private boolean mStarted = false;
+	private boolean mFinished = false;
+
+	public JSONArrayReader(InputStream in) throws IOException {
+		this(new InputStreamReader(in, "UTF-8"));
+	}
+
+	public JSONArrayReader(Reader reader) {
+		mReader = reader;
+	}
+
+	/**
+	 * @return 数组中是否还有元素
+	 * @throws JSONException
+	 *             流的内容不是JSON数组
+	 * @throws IOException
+	 */
+	public boolean hasNext() throws IOException, JSONException {
+		if (mFinished) {
+			return false;
+		}
+		if (!mStarted) {
+			int c = nextNonWhitespace();
+			if (c != '[') {
+				throw syntaxError("A JSONArray text must start with '['", c);
+			}
+			mStarted = true;
+		}
+
+		int c = nextNonWhitespace();
+		if (c == ',') {
+			c = nextNonWhitespace();
+		}
+		if (c == ']') {
+			mFinished = true;
+			return false;
+		}
+		if (c == -1) {
+			throw new JSONException("Unterminated JSONArray");
+		}
+		// 留给nextObject()读取
+		mPos--;
+		return true;
+	}
+
+	/**
+	 * 读取数组中的下一个JSON对象
+	 *
+	 * @return JSONObject
+	 * @throws JSONException
+	 *             下一个元素不是JSON对象或格式错误
+	 * @throws IOException
+	 */
+	public JSONObject nextObject() throws IOException, JSONException {
+		if (!hasNext()) {
+			throw new JSONException("No more elements in JSONArray");
+		}
+
+		int c = read();
+		if (c != '{') {
+			throw syntaxError("A JSONObject text must begin with '{'", c);
+		}
+
+		mElement.setLength(0);
+		mElement.append('{');
+
+		int depth = 1;
+		boolean inString = false;
+		while (depth > 0) {
+			c = read();
+			if (c == -1) {
+				throw new JSONException("Unterminated JSONObject");
+			}
+			mElement.append((char) c);
+
+			if (inString) {
+				if (c == '\\') {
+					c = read();
+					if (c == -1) {
+						throw new JSONException("Unterminated string");
+					}
+					mElement.append((char) c);
+				} else if (c == '"') {
+					inString = false;
+				}
+			} else {
+				switch (c) {
+				case '"':
+					inString = true;
+					break;
+				case '{':
+				case '[':
+					depth++;
+					break;
+				case '}':
+				case ']':
+					depth--;
+					break;
+				}
+			}
+		}
+
+		return new JSONObject(mElement.toString());
+	}
+
+	/**
+	 * 关闭底层的流, 未读完的内容将被丢弃
+	 */
+	public void close() {
+		try {
+			mReader.close();
+		} catch (IOException ignore) {
+		}
+	}
+
+	private int read() throws IOException {
+		if (mPos >= mLimit) {
+			mLimit = mReader.read(mBuffer, 0, BUFFER_SIZE);
+			mPos = 0;
+			if (mLimit <= 0) {
+				mLimit = 0;
+				return -1;
+			}
+		}
+		return mBuffer[mPos++];
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+		return c;
+	}
+
+	private static JSONException syntaxError(String msg, int c) {
+		return new JSONException(msg + ", but got "
+				+ (c == -1 ? "end of stream" : "'" + (char) c + "'"));
+	}
+}
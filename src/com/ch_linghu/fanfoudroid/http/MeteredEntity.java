@@ -0,0 +1,114 @@
+package com.ch_linghu.fanfoudroid.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * 统计响应体的字节数, 读完或关闭时结束HttpMetrics.Sample, 并执行onComplete
+ *
+ * 对于gzip压缩的响应, 分别统计压缩前(网络上传输)和解压后的字节数.
+ */
+class MeteredEntity extends HttpEntityWrapper {
+	private final HttpMetrics.Sample mSample;
+	private final Runnable mOnComplete;
+	private final AtomicBoolean mCompleted = new AtomicBoolean(false);
+
+	/**
+	 * @param onComplete
+	 *            响应体读完, 关闭或被丢弃时执行一次, 可以为null
+	 */
+	MeteredEntity(HttpEntity entity, HttpMetrics.Sample sample,
+			Runnable onComplete) {
+		super(entity);
+		mSample = sample;
+		mOnComplete = onComplete;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		if (wrappedEntity instanceof HttpClient.GzipDecompressingEntity) {
+			HttpEntity compressed = ((HttpClient.GzipDecompressingEntity) wrappedEntity)
+					.getCompressedEntity();
+			InputStream wire = new MeteredInputStream(compressed.getContent(),
+					true, false);
+			return new MeteredInputStream(new GZIPInputStream(wire), false,
+					true);
+		}
+		return new MeteredInputStream(wrappedEntity.getContent(), true, true);
+	}
+
+	@Override
+	public void consumeContent() throws IOException {
+		try {
+			super.consumeContent();
+		} finally {
+			complete();
+		}
+	}
+
+	private void complete() {
+		mSample.finish();
+		if (null != mOnComplete && mCompleted.compareAndSet(false, true)) {
+			mOnComplete.run();
+		}
+	}
+
+	private class MeteredInputStream extends FilterInputStream {
+		private final boolean mCountCompressed;
+		private final boolean mCountBody;
+
+		MeteredInputStream(InputStream in, boolean countCompressed,
+				boolean countBody) {
+			super(in);
+			mCountCompressed = countCompressed;
+			mCountBody = countBody;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			count(b < 0 ? -1 : 1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length)
+				throws IOException {
+			int n = super.read(buffer, offset, length);
+			count(n);
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (mCountBody) {
+					complete();
+				}
+			}
+		}
+
+		private void count(int n) {
+			if (n < 0) {
+				if (mCountBody) {
+					complete();
+				}
+				return;
+			}
+			if (mCountCompressed) {
+				mSample.addCompressedBytes(n);
+			}
+			if (mCountBody) {
+				mSample.addBodyBytes(n);
+			}
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package com.ch_linghu.fanfoudroid.http;
+
+/**
+ * 本地调用配额不足, 低优先级的请求未被发送. RetryPolicy在getRetryAfter()之后重试
+ * 
+ * @see RateLimiter
+ */
+public class RateLimitException extends HttpException {
+
+	private static final long serialVersionUID = -3071573384946512174L;
+
+	private final long mRetryAfter;
+
+	/**
+	 * @param retryAfter
+	 *            配额恢复到保留量以上所需的毫秒数
+	 */
+	public RateLimitException(String msg, long retryAfter) {
+		super(msg);
+		mRetryAfter = retryAfter;
+	}
+
+	/**
+	 * @return 按补充速度, 多少毫秒后可以重新发送
+	 */
+	public long getRetryAfter() {
+		return mRetryAfter;
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.ch_linghu.fanfoudroid.http;
+
+/**
+ * 客户端API调用频率限制(令牌桶)
+ *
+ * 令牌数由服务器返回的RateLimitStatus(剩余次数, 每小时上限)初始化, 每次API调用
+ * 消耗一个令牌, 并按每小时上限匀速补充. 剩余令牌不足保留量时, 低优先级的请求
+ * (后台轮询, 预加载)将被推迟, 把剩余的配额留给用户直接发起的操作.
+ *
+ * 在获得服务器的限额信息之前不做任何限制.
+ */
+public class RateLimiter {
+	private static final long HOUR = 60 * 60 * 1000;
+
+	/** 为用户操作保留的配额比例 */
+	private static final float RESERVED_RATIO = 0.2f;
+	private static final int MIN_RESERVED = 5;
+
+	private boolean mSeeded = false;
+	private long mSeededAt = 0;
+	private int mCapacity = 0;
+	private double mTokens = 0;
+	private long mLastRefill = 0;
+
+	private int mDeferredCount = 0;
+
+	/**
+	 * 以服务器返回的限额信息重置令牌桶
+	 * 
+	 * @param remainingHits
+	 *            本小时剩余调用次数
+	 * @param hourlyLimit
+	 *            每小时调用上限
+	 */
+	public synchronized void seed(int remainingHits, int hourlyLimit) {
+		if (hourlyLimit <= 0 || remainingHits < 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		mCapacity = hourlyLimit;
+		mTokens = Math.min(remainingHits, hourlyLimit);
+		mLastRefill = now;
+		mSeededAt = now;
+		mSeeded = true;
+	}
+
+	/**
+	 * @return 是否需要从服务器获取(刷新)限额信息
+	 */
+	public synchronized boolean needsSeed() {
+		return !mSeeded || System.currentTimeMillis() - mSeededAt > HOUR;
+	}
+
+	/**
+	 * 消耗一次调用配额
+	 * 
+	 * @param priority
+	 *            请求的优先级
+	 * @throws RateLimitException
+	 *             配额不足, 低优先级的请求被推迟, 由RetryPolicy在配额恢复后重试
+	 */
+	public synchronized void acquire(RequestPriority priority)
+			throws RateLimitException {
+		if (!mSeeded) {
+			return;
+		}
+		refill();
+
+		if (priority.isLowPriority() && mTokens - 1 < getReserved()) {
+			mDeferredCount++;
+			// 按每小时上限匀速补充, 补足到保留量以上所需的时间
+			double missing = getReserved() + 1 - mTokens;
+			long retryAfter = (long) Math.ceil(missing * HOUR / mCapacity);
+			throw new RateLimitException("Rate limit is low ("
+					+ (int) mTokens + "/" + mCapacity + "), " + priority
+					+ " request deferred for " + retryAfter + "ms", retryAfter);
+		}
+
+		// 用户操作不在本地拦截, 由服务器决定
+		mTokens = Math.max(0, mTokens - 1);
+	}
+
+	/**
+	 * @return 当前剩余的调用次数估计值, 未初始化时返回-1
+	 */
+	public synchronized int getRemaining() {
+		if (!mSeeded) {
+			return -1;
+		}
+		refill();
+		return (int) mTokens;
+	}
+
+	/**
+	 * @return 因配额不足而被推迟的请求数
+	 */
+	public synchronized int getDeferredCount() {
+		return mDeferredCount;
+	}
+
+	private int getReserved() {
+		return Math.max(MIN_RESERVED, (int) (mCapacity * RESERVED_RATIO));
+	}
+
+	private void refill() {
+		long now = System.currentTimeMillis();
+		long elapsed = now - mLastRefill;
+		if (elapsed > 0) {
+			mTokens = Math.min(mCapacity, mTokens + (double) mCapacity
+					* elapsed / HOUR);
+			mLastRefill = now;
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package com.ch_linghu.fanfoudroid.http;
+
+/**
+ * 排队中的请求被取消(或线程被中断), 请求未发出
+ * 
+ * @see RequestScheduler
+ */
+public class RequestCancelledException extends HttpException {
+
+	private static final long serialVersionUID = 8462279047353159316L;
+
+	public RequestCancelledException(String msg) {
+		super(msg);
+	}
+
+}
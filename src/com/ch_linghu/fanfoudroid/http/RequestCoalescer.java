@@ -0,0 +1,150 @@
+package com.ch_linghu.fanfoudroid.http;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 合并同时进行的相同GET请求(single-flight)
+ *
+ * 第一个请求实际访问网络, 在它完成之前到达的相同请求只需等待并共享其结果. 没有
+ * 其他请求等待时, 第一个请求的响应原样返回(不缓存响应体, 不影响流式解析);
+ * 有请求等待时, 响应体被读入内存, 每个请求各得到一个基于该内容的Response.
+ */
+public class RequestCoalescer {
+
+	/**
+	 * 实际执行请求
+	 */
+	public interface Fetcher {
+		Response fetch() throws HttpException;
+	}
+
+	private static class Call {
+		private int waiters = 0;
+		private boolean done = false;
+		private byte[] body;
+		private Response notModified;
+		private HttpException error;
+
+		synchronized void complete(byte[] body, Response notModified,
+				HttpException error) {
+			this.body = body;
+			this.notModified = notModified;
+			this.error = error;
+			this.done = true;
+			notifyAll();
+		}
+
+		synchronized Response await() throws HttpException {
+			while (!done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new HttpException(e.getMessage(), e);
+				}
+			}
+			if (null != error) {
+				throw error;
+			}
+			if (null != notModified) {
+				return notModified;
+			}
+			return new Response(body, false);
+		}
+	}
+
+	private final Map<String, Call> mInFlight = new HashMap<String, Call>();
+
+	private int mSavedCount = 0;
+
+	/**
+	 * 执行请求, 若已有相同的请求正在进行则等待其结果
+	 *
+	 * @param key
+	 *            标识相同请求的key
+	 * @param fetcher
+	 * @return Response
+	 * @throws HttpException
+	 */
+	public Response execute(String key, Fetcher fetcher) throws HttpException {
+		Call call;
+		boolean leader = false;
+		synchronized (mInFlight) {
+			call = mInFlight.get(key);
+			if (null != call) {
+				call.waiters++;
+				mSavedCount++;
+			} else {
+				call = new Call();
+				mInFlight.put(key, call);
+				leader = true;
+			}
+		}
+
+		if (!leader) {
+			return call.await();
+		}
+
+		// Leader
+		Response res = null;
+		HttpException error = null;
+		int waiters = 0;
+		try {
+			res = fetcher.fetch();
+		} catch (HttpException e) {
+			error = e;
+		} finally {
+			synchronized (mInFlight) {
+				mInFlight.remove(key);
+				waiters = call.waiters;
+			}
+			if (waiters > 0) {
+				share(call, res, error);
+			} else {
+				call.complete(null, null, null);
+			}
+		}
+
+		if (null != error) {
+			throw error;
+		}
+		if (waiters > 0) {
+			// 响应体已被读入内存, 与等待者一样从中取得结果
+			return call.await();
+		}
+		return res;
+	}
+
+	/**
+	 * 将结果交给等待中的请求. 若fetch抛出了非HttpException的异常,
+	 * res和error均为null, 等待者同样会得到异常.
+	 */
+	private void share(Call call, Response res, HttpException error) {
+		if (null == res && null == error) {
+			error = new HttpException("Coalesced request failed");
+		}
+		if (null != error) {
+			call.complete(null, null, error);
+			return;
+		}
+		if (res.isNotModified()) {
+			call.complete(null, res, null);
+			return;
+		}
+		try {
+			call.complete(res.asByteArray(), null, null);
+		} catch (HttpException e) {
+			call.complete(null, null, e);
+		}
+	}
+
+	/**
+	 * @return 被合并而省去的请求数
+	 */
+	public int getSavedCount() {
+		synchronized (mInFlight) {
+			return mSavedCount;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package com.ch_linghu.fanfoudroid.http;
+
+/**
+ * 网络请求的优先级
+ *
+ * 优先级与执行请求的线程相关联, 由发起请求的一方(如后台服务)在执行前设置,
+ * 执行完毕后恢复:
+ *
+ * <pre>
+ * RequestPriority previous = RequestPriority.setCurrent(RequestPriority.BACKGROUND);
+ * try {
+ * 	// ...
+ * } finally {
+ * 	RequestPriority.setCurrent(previous);
+ * }
+ * </pre>
+ */
+public enum RequestPriority {
+	/** 用户直接发起的操作, 如发送消息, 手动刷新 */
+	INTERACTIVE,
+	/** 正在显示的内容, 如屏幕上的头像 */
+	VISIBLE,
+	/** 预先加载, 用户可能很快会看到的内容 */
+	PREFETCH,
+	/** 后台任务, 如定时检查新消息 */
+	BACKGROUND;
+
+	private static final ThreadLocal<RequestPriority> sCurrent = new ThreadLocal<RequestPriority>() {
+		@Override
+		protected RequestPriority initialValue() {
+			return INTERACTIVE;
+		}
+	};
+
+	/**
+	 * @return 当前线程的请求优先级, 默认为INTERACTIVE
+	 */
+	public static RequestPriority current() {
+		return sCurrent.get();
+	}
+
+	/**
+	 * 设置当前线程的请求优先级
+	 * 
+	 * @param priority
+	 * @return 之前的优先级, 用于恢复
+	 */
+	public static RequestPriority setCurrent(RequestPriority priority) {
+		RequestPriority previous = sCurrent.get();
+		sCurrent.set(priority);
+		return previous;
+	}
+
+	/**
+	 * @return 是否可以被推迟或放弃
+	 */
+	public boolean isLowPriority() {
+		return this == PREFETCH || this == BACKGROUND;
+	}
+}
@@ -0,0 +1,198 @@
+package com.ch_linghu.fanfoudroid.http;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * 按优先级调度网络请求
+ *
+ * 同时进行的请求总数不超过连接池的大小, 每类请求另有各自的并发上限. 有空闲的名额时,
+ * 总是先放行优先级高的请求, 同一优先级内按先后顺序. 低优先级请求的上限之和小于总数,
+ * 因此即使后台任务和头像下载占满了各自的名额, 用户操作仍有连接可用.
+ *
+ * 排队中的请求可以通过中断线程或cancelQueued()取消, 此时抛出RequestCancelledException.
+ */
+public class RequestScheduler {
+
+	/** 与ThreadSafeClientConnManager的连接数上限一致 */
+	public static final int DEFAULT_MAX_CONCURRENT = 10;
+
+	/**
+	 * 每类请求的并发上限, 按RequestPriority的顺序: INTERACTIVE, VISIBLE, PREFETCH,
+	 * BACKGROUND
+	 */
+	private static final int[] DEFAULT_CLASS_LIMITS = new int[] { 10, 4, 2, 2 };
+
+	/**
+	 * 一次被放行的请求, 完成后须调用release()
+	 */
+	public static class Ticket {
+		private final RequestPriority priority;
+		private boolean granted = false;
+		private boolean cancelled = false;
+
+		private Ticket(RequestPriority priority) {
+			this.priority = priority;
+		}
+
+		public RequestPriority getPriority() {
+			return priority;
+		}
+	}
+
+	private final int mMaxConcurrent;
+	private final int[] mClassLimits;
+
+	private final int[] mRunning;
+	private int mRunningTotal = 0;
+	private final List<LinkedList<Ticket>> mQueues;
+
+	private int mCancelledCount = 0;
+
+	public RequestScheduler() {
+		this(DEFAULT_MAX_CONCURRENT, DEFAULT_CLASS_LIMITS);
+	}
+
+	/**
+	 * @param maxConcurrent
+	 *            同时进行的请求总数上限
+	 * @param classLimits
+	 *            每类请求的并发上限, 按RequestPriority的顺序
+	 */
+	public RequestScheduler(int maxConcurrent, int[] classLimits) {
+		int classes = RequestPriority.values().length;
+		if (classLimits.length != classes) {
+			throw new IllegalArgumentException("Expected " + classes
+					+ " class limits, got " + classLimits.length);
+		}
+		mMaxConcurrent = maxConcurrent;
+		mClassLimits = classLimits.clone();
+		mRunning = new int[classes];
+		mQueues = new ArrayList<LinkedList<Ticket>>(classes);
+		for (int i = 0; i < classes; i++) {
+			mQueues.add(new LinkedList<Ticket>());
+		}
+	}
+
+	/**
+	 * 等待直到可以发出请求
+	 * 
+	 * @param priority
+	 * @return Ticket, 请求完成后交给release()
+	 * @throws RequestCancelledException
+	 *             排队时被取消或线程被中断
+	 */
+	public synchronized Ticket acquire(RequestPriority priority)
+			throws RequestCancelledException {
+		Ticket ticket = new Ticket(priority);
+		mQueues.get(priority.ordinal()).add(ticket);
+		dispatch();
+
+		while (!ticket.granted && !ticket.cancelled) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (!ticket.granted) {
+					ticket.cancelled = true;
+					mQueues.get(priority.ordinal()).remove(ticket);
+					mCancelledCount++;
+				}
+			}
+		}
+
+		if (ticket.cancelled) {
+			throw new RequestCancelledException(priority
+					+ " request cancelled while queued");
+		}
+		return ticket;
+	}
+
+	/**
+	 * 请求完成, 让出名额
+	 * 
+	 * @param ticket
+	 */
+	public synchronized void release(Ticket ticket) {
+		if (!ticket.granted) {
+			return;
+		}
+		ticket.granted = false;
+		mRunning[ticket.priority.ordinal()]--;
+		mRunningTotal--;
+		dispatch();
+	}
+
+	/**
+	 * 取消某一优先级所有排队中的请求, 已经发出的请求不受影响
+	 * 
+	 * @param priority
+	 * @return 被取消的请求数
+	 */
+	public synchronized int cancelQueued(RequestPriority priority) {
+		LinkedList<Ticket> queue = mQueues.get(priority.ordinal());
+		int count = queue.size();
+		for (Ticket ticket : queue) {
+			ticket.cancelled = true;
+		}
+		queue.clear();
+		mCancelledCount += count;
+		if (count > 0) {
+			notifyAll();
+		}
+		return count;
+	}
+
+	/**
+	 * @param priority
+	 * @return 该优先级排队中的请求数
+	 */
+	public synchronized int getQueuedCount(RequestPriority priority) {
+		return mQueues.get(priority.ordinal()).size();
+	}
+
+	/**
+	 * @param priority
+	 * @return 该优先级正在进行的请求数
+	 */
+	public synchronized int getRunningCount(RequestPriority priority) {
+		return mRunning[priority.ordinal()];
+	}
+
+	/**
+	 * @return 在排队时被取消的请求数
+	 */
+	public synchronized int getCancelledCount() {
+		return mCancelledCount;
+	}
+
+	/**
+	 * 按优先级从高到低放行排队中的请求. 总名额用完时停止, 以免低优先级的请求
+	 * 抢在等待中的高优先级请求之前.
+	 */
+	private void dispatch() {
+		boolean granted = false;
+		for (int i = 0; i < mQueues.size(); i++) {
+			Iterator<Ticket> it = mQueues.get(i).iterator();
+			while (it.hasNext() && mRunning[i] < mClassLimits[i]) {
+				if (mRunningTotal >= mMaxConcurrent) {
+					break;
+				}
+				Ticket ticket = it.next();
+				it.remove();
+				ticket.granted = true;
+				mRunning[i]++;
+				mRunningTotal++;
+				granted = true;
+			}
+			if (mRunningTotal >= mMaxConcurrent) {
+				break;
+			}
+		}
+		if (granted) {
+			notifyAll();
+		}
+	}
+}
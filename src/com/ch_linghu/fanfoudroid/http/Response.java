@@ -10,7 +10,11 @@ import java.util.regex.Pattern;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.util.CharArrayBuffer;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -23,11 +27,67 @@ import com.ch_linghu.fanfoudroid.util.DebugTimer;
 public class Response {
 	private final HttpResponse mResponse;
 	private boolean mStreamConsumed = false;
+	private boolean mFromCache = false;
 
 	public Response(HttpResponse res) {
 		mResponse = res;
 	}
 
+	/**
+	 * 由已读取的响应体构造一个200响应, 用于缓存
+	 * 
+	 * @param body
+	 * @param fromCache
+	 *            是否来自ResponseCache
+	 */
+	public Response(byte[] body, boolean fromCache) {
+		BasicHttpResponse res = new BasicHttpResponse(HttpVersion.HTTP_1_1,
+				HttpClient.OK, "OK");
+		ByteArrayEntity entity = new ByteArrayEntity(body);
+		entity.setContentType("application/json; charset=UTF-8");
+		res.setEntity(entity);
+		mResponse = res;
+		mFromCache = fromCache;
+	}
+
+	/**
+	 * @return 响应是否来自ResponseCache
+	 */
+	public boolean isFromCache() {
+		return mFromCache;
+	}
+
+	/**
+	 * @return HTTP status code
+	 */
+	public int getStatusCode() {
+		return mResponse.getStatusLine().getStatusCode();
+	}
+
+	/**
+	 * 条件请求的内容未改变(304), 此时响应没有内容, 应视为空结果
+	 * 
+	 * @return
+	 */
+	public boolean isNotModified() {
+		return getStatusCode() == HttpClient.NOT_MODIFIED;
+	}
+
+	/**
+	 * 丢弃响应体, 以便释放连接
+	 */
+	public void consume() {
+		HttpEntity entity = mResponse.getEntity();
+		if (null != entity) {
+			try {
+				entity.consumeContent();
+			} catch (IOException e) {
+				Log.w("Response", e.getMessage(), e);
+			}
+		}
+		setStreamConsumed(true);
+	}
+
 	/**
 	 * Convert Response to inputStream
 	 * 
@@ -72,6 +132,27 @@ public class Response {
 		return is;
 	}
 
+	/**
+	 * Convert Response to byte array
+	 * 
+	 * @return response body
+	 * @throws ResponseException
+	 */
+	public byte[] asByteArray() throws ResponseException {
+		HttpEntity entity = mResponse.getEntity();
+		if (null == entity) {
+			return new byte[0];
+		}
+		try {
+			byte[] body = EntityUtils.toByteArray(entity);
+			return (null == body) ? new byte[0] : body;
+		} catch (IOException e) {
+			throw new ResponseException(e.getMessage(), e);
+		} finally {
+			setStreamConsumed(true);
+		}
+	}
+
 	/**
 	 * Convert Response to Context String
 	 * 
@@ -114,7 +195,7 @@ public class Response {
 		if (i < 0) {
 			i = 4096;
 		}
-		Log.i("LDS", i + " content length");
+		// 字节数由MeteredEntity计入HttpMetrics, 读完时结束该请求的统计
 
 		Reader reader = new BufferedReader(new InputStreamReader(instream,
 				"UTF-8"));
@@ -178,6 +259,29 @@ public class Response {
 		}
 	}
 
+	/**
+	 * Convert Response to a streaming JSONArray reader
+	 * 
+	 * 逐个解析数组中的元素, 无需将整个响应体缓存为String或JSONArray,
+	 * 调用者负责在读取完毕后调用JSONArrayReader#close()
+	 * 
+	 * @return JSONArrayReader
+	 * @throws ResponseException
+	 */
+	public JSONArrayReader asJSONArrayReader() throws ResponseException {
+		InputStream is = asStream();
+		if (null == is) {
+			throw new ResponseException("HTTP entity may not be null");
+		}
+		try {
+			JSONArrayReader reader = new JSONArrayReader(is);
+			setStreamConsumed(true);
+			return reader;
+		} catch (IOException e) {
+			throw new ResponseException(e.getMessage(), e);
+		}
+	}
+
 	private void setStreamConsumed(boolean mStreamConsumed) {
 		this.mStreamConsumed = mStreamConsumed;
 	}
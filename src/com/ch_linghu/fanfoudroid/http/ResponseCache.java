@@ -0,0 +1,380 @@
+package com.ch_linghu.fanfoudroid.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * 只读API调用的磁盘响应缓存
+ *
+ * 缓存以LRU方式淘汰, 总大小不超过给定的字节数. 每类API有各自的有效期(ttl), 过期后
+ * 在stale期限内仍可直接使用缓存, 同时由调用者在后台重新获取(stale-while-revalidate).
+ * 对相关资源的POST请求会使对应的缓存失效.
+ */
+public class ResponseCache {
+	private static final String TAG = "ResponseCache";
+
+	private static final long MINUTE = 60 * 1000;
+	private static final long HOUR = 60 * MINUTE;
+	private static final long DAY = 24 * HOUR;
+
+	public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+	/**
+	 * 一类可缓存的API
+	 */
+	public static class Rule {
+		/** API路径前缀, 如 "users/show" */
+		public final String path;
+		/** 缓存的有效期 */
+		public final long ttl;
+		/** 过期后仍可使用(同时后台刷新)的时长 */
+		public final long stale;
+		/** 会使该缓存失效的POST请求的路径前缀 */
+		public final String[] invalidatedBy;
+
+		public Rule(String path, long ttl, long stale, String... invalidatedBy) {
+			this.path = path;
+			this.ttl = ttl;
+			this.stale = stale;
+			this.invalidatedBy = invalidatedBy;
+		}
+
+		boolean matches(String urlPath) {
+			return urlPath.startsWith(path);
+		}
+
+		boolean isInvalidatedBy(String urlPath) {
+			for (String prefix : invalidatedBy) {
+				if (urlPath.startsWith(prefix)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static final Rule[] RULES = new Rule[] {
+			new Rule("users/show", 10 * MINUTE, DAY, "friendships/",
+					"blocks/", "notifications/", "account/"),
+			new Rule("statuses/show/", HOUR, 7 * DAY, "favorites/",
+					"statuses/destroy/"),
+			new Rule("trends", 15 * MINUTE, HOUR),
+			new Rule("saved_searches", HOUR, DAY, "saved_searches/"), };
+
+	/**
+	 * 一条缓存记录
+	 */
+	public static class Entry {
+		private final String key;
+		private final long storedAt;
+		private final long size;
+		private byte[] body;
+
+		Entry(String key, long storedAt, long size) {
+			this.key = key;
+			this.storedAt = storedAt;
+			this.size = size;
+		}
+
+		public long getAge() {
+			return System.currentTimeMillis() - storedAt;
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+	}
+
+	private final File mDirectory;
+	private final long mMaxBytes;
+	private long mSize = 0;
+	private boolean mInitialized = false;
+
+	// 按访问顺序排列, 最久未使用的在最前
+	private final LinkedHashMap<String, Entry> mIndex = new LinkedHashMap<String, Entry>(
+			32, 0.75f, true);
+
+	public ResponseCache(File directory, long maxBytes) {
+		mDirectory = directory;
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * 查找URL对应的缓存规则
+	 *
+	 * @param url
+	 * @return 不可缓存时返回null
+	 */
+	public Rule findRule(String url) {
+		String path = getApiPath(url);
+		if (null == path) {
+			return null;
+		}
+		for (Rule rule : RULES) {
+			if (rule.matches(path)) {
+				return rule;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 读取缓存
+	 *
+	 * @param key
+	 * @return 不存在或读取失败时返回null
+	 */
+	public synchronized Entry get(String key) {
+		ensureInitialized();
+
+		Entry entry = mIndex.get(key);
+		if (null == entry) {
+			return null;
+		}
+
+		File file = getFile(key);
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			in.readUTF();
+			in.readLong();
+			int length = in.readInt();
+			byte[] body = new byte[length];
+			in.readFully(body);
+			file.setLastModified(System.currentTimeMillis());
+
+			// 索引中的记录不持有响应体
+			Entry result = new Entry(key, entry.storedAt, entry.size);
+			result.body = body;
+			return result;
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to read cache " + file, e);
+			remove(entry);
+			return null;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * 写入缓存, 先写入临时文件再重命名, 以免留下不完整的文件
+	 *
+	 * @param key
+	 * @param body
+	 */
+	public synchronized void put(String key, byte[] body) {
+		ensureInitialized();
+
+		if (body.length > mMaxBytes) {
+			return;
+		}
+
+		Entry old = mIndex.get(key);
+		if (null != old) {
+			remove(old);
+		}
+
+		File file = getFile(key);
+		File tmp = new File(mDirectory, file.getName() + ".tmp");
+		long storedAt = System.currentTimeMillis();
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tmp)));
+			out.writeUTF(key);
+			out.writeLong(storedAt);
+			out.writeInt(body.length);
+			out.write(body);
+			out.close();
+			out = null;
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Unable to rename " + tmp);
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to write cache " + file, e);
+			closeQuietly(out);
+			tmp.delete();
+			return;
+		}
+
+		Entry entry = new Entry(key, storedAt, file.length());
+		mIndex.put(key, entry);
+		mSize += entry.size;
+		trimToSize();
+	}
+
+	/**
+	 * 在对url发出POST请求后, 使受影响的缓存失效
+	 *
+	 * @param url
+	 */
+	public synchronized void invalidate(String url) {
+		String path = getApiPath(url);
+		if (null == path) {
+			return;
+		}
+		for (Rule rule : RULES) {
+			if (rule.isInvalidatedBy(path)) {
+				invalidate(rule);
+			}
+		}
+	}
+
+	private void invalidate(Rule rule) {
+		ensureInitialized();
+
+		List<Entry> removed = new ArrayList<Entry>();
+		for (Entry entry : mIndex.values()) {
+			// key: "<user> <url>"
+			String url = entry.key.substring(entry.key.indexOf(' ') + 1);
+			if (rule == findRule(url)) {
+				removed.add(entry);
+			}
+		}
+		for (Entry entry : removed) {
+			remove(entry);
+		}
+	}
+
+	public synchronized void clear() {
+		ensureInitialized();
+
+		for (Entry entry : new ArrayList<Entry>(mIndex.values())) {
+			remove(entry);
+		}
+	}
+
+	public synchronized long size() {
+		return mSize;
+	}
+
+	private void remove(Entry entry) {
+		mIndex.remove(entry.key);
+		mSize -= entry.size;
+		getFile(entry.key).delete();
+	}
+
+	private void trimToSize() {
+		Iterator<Entry> it = mIndex.values().iterator();
+		while (mSize > mMaxBytes && it.hasNext()) {
+			Entry entry = it.next();
+			it.remove();
+			mSize -= entry.size;
+			getFile(entry.key).delete();
+		}
+	}
+
+	/**
+	 * 首次使用时从缓存目录重建索引, 最近使用的文件排在最后
+	 */
+	private void ensureInitialized() {
+		if (mInitialized) {
+			return;
+		}
+		mInitialized = true;
+
+		if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+			Log.w(TAG, "Unable to create cache directory " + mDirectory);
+			return;
+		}
+
+		File[] files = mDirectory.listFiles();
+		if (null == files) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long diff = f1.lastModified() - f2.lastModified();
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+
+		for (File file : files) {
+			if (file.getName().endsWith(".tmp")) {
+				file.delete();
+				continue;
+			}
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(file)));
+				String key = in.readUTF();
+				long storedAt = in.readLong();
+				Entry entry = new Entry(key, storedAt, file.length());
+				mIndex.put(key, entry);
+				mSize += entry.size;
+			} catch (IOException e) {
+				file.delete();
+			} finally {
+				closeQuietly(in);
+			}
+		}
+		trimToSize();
+	}
+
+	private File getFile(String key) {
+		return new File(mDirectory, hash(key));
+	}
+
+	/**
+	 * @param url
+	 * @return 去掉开头"/"的URL路径, 如 "users/show.json"
+	 */
+	private static String getApiPath(String url) {
+		try {
+			String path = new URI(url).getPath();
+			if (null == path) {
+				return null;
+			}
+			return path.startsWith("/") ? path.substring(1) : path;
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+	private static String hash(String key) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			byte[] digest = md.digest(key.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+				sb.append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return String.valueOf(key.hashCode());
+		} catch (IOException e) {
+			return String.valueOf(key.hashCode());
+		}
+	}
+
+	private static void closeQuietly(java.io.Closeable c) {
+		if (null != c) {
+			try {
+				c.close();
+			} catch (IOException ignore) {
+			}
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package com.ch_linghu.fanfoudroid.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+import javax.net.ssl.SSLException;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * HttpClient的重试策略
+ *
+ * <li>GET请求是幂等的, 在I/O错误及502/503时重试</li>
+ * <li>POST等请求只在连接尚未建立(请求肯定未到达服务器)时重试, 以免重复发送消息</li>
+ * <li>因本地配额不足被推迟的请求(RateLimitException)尚未发出, 在配额恢复后重试</li>
+ * <li>重试间隔按指数增长并加入随机抖动(full jitter), 避免大量客户端同时重试</li>
+ * <li>整个请求(包括所有重试)不会超过deadline, 单次请求可以用withDeadline()指定自己的deadline</li>
+ *
+ * @see HttpClient#httpRequest(String, java.util.ArrayList, java.io.File, boolean,
+ *      String, boolean, RetryPolicy)
+ */
+public class RetryPolicy {
+
+	public static final RetryPolicy DEFAULT = new RetryPolicy(
+			HttpClient.RETRIED_TIME, 500, 8 * 1000, 60 * 1000);
+
+	/** 不重试 */
+	public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0, 0);
+
+	private final int mMaxRetries;
+	private final long mBaseDelayMs;
+	private final long mMaxDelayMs;
+	private final long mDeadlineMs;
+
+	private final Random mRandom = new Random();
+
+	private int mRetryCount = 0;
+	private int mGiveUpCount = 0;
+
+	/**
+	 * @param maxRetries
+	 *            最多重试次数(不包括第一次请求)
+	 * @param baseDelayMs
+	 *            第一次重试前的最大等待时间
+	 * @param maxDelayMs
+	 *            两次请求之间的最大等待时间
+	 * @param deadlineMs
+	 *            从第一次请求开始计算, 超过此时间不再重试, 0表示不限制
+	 */
+	public RetryPolicy(int maxRetries, long baseDelayMs, long maxDelayMs,
+			long deadlineMs) {
+		mMaxRetries = maxRetries;
+		mBaseDelayMs = baseDelayMs;
+		mMaxDelayMs = maxDelayMs;
+		mDeadlineMs = deadlineMs;
+	}
+
+	/**
+	 * @param deadlineMs
+	 *            从第一次请求开始计算, 超过此时间不再重试, 0表示不限制
+	 * @return 重试次数和间隔相同, 但deadline不同的策略, 用于单次请求
+	 */
+	public RetryPolicy withDeadline(long deadlineMs) {
+		return new RetryPolicy(mMaxRetries, mBaseDelayMs, mMaxDelayMs,
+				deadlineMs);
+	}
+
+	/**
+	 * 计算下一次重试前需要等待的时间
+	 *
+	 * @param httpMethod
+	 *            GET, POST, DELETE
+	 * @param retries
+	 *            已经重试的次数
+	 * @param startTime
+	 *            第一次请求开始的时间
+	 * @param e
+	 *            本次请求的异常
+	 * @return 等待的毫秒数, 不应重试时返回-1
+	 */
+	public long nextDelay(String httpMethod, int retries, long startTime,
+			HttpException e) {
+		if (!isRetryable(httpMethod, e)) {
+			return -1;
+		}
+
+		long delay = (e instanceof RateLimitException) ? ((RateLimitException) e)
+				.getRetryAfter() : computeDelay(retries);
+		boolean expired = mDeadlineMs > 0
+				&& System.currentTimeMillis() + delay - startTime > mDeadlineMs;
+		if (retries >= mMaxRetries || expired) {
+			synchronized (this) {
+				mGiveUpCount++;
+			}
+			return -1;
+		}
+
+		synchronized (this) {
+			mRetryCount++;
+		}
+		return delay;
+	}
+
+	/**
+	 * Exponential backoff with full jitter: random(0, min(max, base * 2^n))
+	 */
+	private long computeDelay(int retries) {
+		long ceiling = mBaseDelayMs << Math.min(retries, 16);
+		if (ceiling > mMaxDelayMs || ceiling <= 0) {
+			ceiling = mMaxDelayMs;
+		}
+		if (ceiling <= 0) {
+			return 0;
+		}
+		synchronized (mRandom) {
+			return (long) (mRandom.nextDouble() * ceiling);
+		}
+	}
+
+	protected boolean isRetryable(String httpMethod, HttpException e) {
+		boolean idempotent = HttpGet.METHOD_NAME.equalsIgnoreCase(httpMethod);
+
+		if (e instanceof RateLimitException) {
+			// 请求还未发出, 任何方法都可以重试
+			return true;
+		}
+
+		Throwable cause = e.getCause();
+		if (cause instanceof IOException) {
+			if (cause instanceof SSLException) {
+				// Do not retry on SSL handshake exception
+				return false;
+			}
+			if (isConnectFailure(cause)) {
+				// 请求还未发出, 任何方法都可以重试
+				return true;
+			}
+			if (cause instanceof InterruptedIOException
+					&& !(cause instanceof SocketTimeoutException)) {
+				return false;
+			}
+			return idempotent;
+		}
+
+		if (e instanceof HttpServerException) {
+			int statusCode = e.getStatusCode();
+			return idempotent
+					&& (statusCode == HttpClient.BAD_GATEWAY || statusCode == HttpClient.SERVICE_UNAVAILABLE);
+		}
+
+		return false;
+	}
+
+	private static boolean isConnectFailure(Throwable cause) {
+		return cause instanceof ConnectException
+				|| cause instanceof ConnectTimeoutException
+				|| cause instanceof UnknownHostException
+				|| cause instanceof NoRouteToHostException;
+	}
+
+	/**
+	 * @return 重试的总次数
+	 */
+	public synchronized int getRetryCount() {
+		return mRetryCount;
+	}
+
+	/**
+	 * @return 可以重试但因次数或deadline限制而放弃的次数
+	 */
+	public synchronized int getGiveUpCount() {
+		return mGiveUpCount;
+	}
+}
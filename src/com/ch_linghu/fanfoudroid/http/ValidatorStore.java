@@ -0,0 +1,92 @@
+package com.ch_linghu.fanfoudroid.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * 保存GET请求的缓存校验信息(ETag/Last-Modified), 用于条件请求
+ *
+ * 以请求的URL及参数作为key, 在下次请求同一资源时附加 If-None-Match /
+ * If-Modified-Since 请求头, 服务器在内容未改变时将返回304而不是完整的响应体.
+ */
+public class ValidatorStore {
+	private static final int MAX_ENTRIES = 64;
+
+	public static final String HEADER_ETAG = "ETag";
+	public static final String HEADER_LAST_MODIFIED = "Last-Modified";
+	public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+	public static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+	private static class Validator {
+		final String etag;
+		final String lastModified;
+
+		Validator(String etag, String lastModified) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+	}
+
+	// 按访问顺序淘汰最久未使用的记录
+	private final Map<String, Validator> mValidators = new LinkedHashMap<String, Validator>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 2236917387203526467L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Validator> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	/**
+	 * 为请求附加校验头
+	 *
+	 * @param key
+	 *            请求的URL及参数
+	 * @param method
+	 * @return 是否附加了校验头
+	 */
+	public synchronized boolean attach(String key, HttpUriRequest method) {
+		Validator validator = mValidators.get(key);
+		if (null == validator) {
+			return false;
+		}
+		if (null != validator.etag) {
+			method.addHeader(HEADER_IF_NONE_MATCH, validator.etag);
+		}
+		if (null != validator.lastModified) {
+			method.addHeader(HEADER_IF_MODIFIED_SINCE, validator.lastModified);
+		}
+		return true;
+	}
+
+	/**
+	 * 从200响应中记录校验信息, 响应中不含校验头时清除旧的记录
+	 *
+	 * @param key
+	 *            请求的URL及参数
+	 * @param response
+	 */
+	public synchronized void update(String key, HttpResponse response) {
+		String etag = getHeaderValue(response, HEADER_ETAG);
+		String lastModified = getHeaderValue(response, HEADER_LAST_MODIFIED);
+		if (null == etag && null == lastModified) {
+			mValidators.remove(key);
+		} else {
+			mValidators.put(key, new Validator(etag, lastModified));
+		}
+	}
+
+	public synchronized void clear() {
+		mValidators.clear();
+	}
+
+	private static String getHeaderValue(HttpResponse response, String name) {
+		Header header = response.getFirstHeader(name);
+		return (null == header) ? null : header.getValue();
+	}
+}
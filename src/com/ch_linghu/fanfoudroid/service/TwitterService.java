@@ -23,6 +23,11 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import android.app.AlarmManager;
 import android.app.Notification;
@@ -34,6 +39,7 @@ import android.appwidget.AppWidgetManager;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.IBinder;
 import android.os.PowerManager;
@@ -50,11 +56,15 @@ import com.ch_linghu.fanfoudroid.TwitterApplication;
 import com.ch_linghu.fanfoudroid.app.Preferences;
 import com.ch_linghu.fanfoudroid.data.Dm;
 import com.ch_linghu.fanfoudroid.data.Tweet;
+import com.ch_linghu.fanfoudroid.db.DbWriter;
 import com.ch_linghu.fanfoudroid.db.StatusTable;
 import com.ch_linghu.fanfoudroid.db.TwitterDatabase;
 import com.ch_linghu.fanfoudroid.fanfou.Paging;
 import com.ch_linghu.fanfoudroid.fanfou.Weibo;
 import com.ch_linghu.fanfoudroid.http.HttpException;
+import com.ch_linghu.fanfoudroid.http.RateLimitException;
+import com.ch_linghu.fanfoudroid.http.RateLimiter;
+import com.ch_linghu.fanfoudroid.http.RequestPriority;
 import com.ch_linghu.fanfoudroid.task.GenericTask;
 import com.ch_linghu.fanfoudroid.task.TaskAdapter;
 import com.ch_linghu.fanfoudroid.task.TaskListener;
@@ -391,10 +401,32 @@ public class TwitterService extends Service {
 		return widgetIsEnabled;
 	}
 
+	// 同时获取的消息类型数: 首页, 提到我的, 私信
+	private static final int FETCH_THREADS = 3;
+
 	private class RetrieveTask extends GenericTask {
 
 		@Override
 		protected TaskResult _doInBackground(TaskParams... params) {
+			// 后台轮询在API配额紧张时让位于用户操作
+			RequestPriority previous = RequestPriority
+					.setCurrent(RequestPriority.BACKGROUND);
+			try {
+				RateLimiter limiter = getApi().getHttpClient().getRateLimiter();
+				if (limiter.needsSeed()) {
+					try {
+						getApi().getRateLimitStatus();
+					} catch (HttpException e) {
+						Log.w(TAG, "Unable to get rate limit status", e);
+					}
+				}
+				return doRetrieve();
+			} finally {
+				RequestPriority.setCurrent(previous);
+			}
+		}
+
+		private TaskResult doRetrieve() {
 			SharedPreferences preferences = TwitterApplication.mPref;
 
 			boolean timeline_only = preferences.getBoolean(
@@ -405,148 +437,208 @@ public class TwitterService extends Service {
 					true);
 
 			Log.d(TAG, "Widget Is Enabled? " + TwitterService.widgetIsEnabled);
-			if (timeline_only || TwitterService.widgetIsEnabled) {
-				String maxId = getDb()
-						.fetchMaxTweetId(TwitterApplication.getMyselfId(false),
-								StatusTable.TYPE_HOME);
-				Log.d(TAG, "Max id is:" + maxId);
-
-				List<com.ch_linghu.fanfoudroid.fanfou.Status> statusList;
-
-				try {
-					if (maxId != null) {
-						statusList = getApi().getFriendsTimeline(
-								new Paging(maxId));
-					} else {
-						statusList = getApi().getFriendsTimeline();
-					}
-				} catch (HttpException e) {
-					Log.e(TAG, e.getMessage(), e);
-					return TaskResult.IO_ERROR;
-				}
+			final String owner = TwitterApplication.getMyselfId(false);
 
-				for (com.ch_linghu.fanfoudroid.fanfou.Status status : statusList) {
-					if (isCancelled()) {
-						return TaskResult.CANCELLED;
-					}
+			// 三类消息互不依赖, 同时获取, 耗时只取决于最慢的一个
+			ExecutorService executor = Executors
+					.newFixedThreadPool(FETCH_THREADS);
+			Future<List<com.ch_linghu.fanfoudroid.fanfou.Status>> homeFuture = null;
+			Future<List<com.ch_linghu.fanfoudroid.fanfou.Status>> mentionFuture = null;
+			Future<List<com.ch_linghu.fanfoudroid.fanfou.DirectMessage>> dmFuture = null;
 
-					Tweet tweet;
+			List<com.ch_linghu.fanfoudroid.fanfou.Status> statusList = null;
+			List<com.ch_linghu.fanfoudroid.fanfou.Status> mentionList = null;
+			List<com.ch_linghu.fanfoudroid.fanfou.DirectMessage> dmList = null;
+			boolean ioError = false;
 
-					tweet = Tweet.create(status);
-
-					mNewTweets.add(tweet);
-
-					Log.d(TAG, mNewTweets.size() + " new tweets.");
-
-					int count = getDb().addNewTweetsAndCountUnread(mNewTweets,
-							TwitterApplication.getMyselfId(false),
+			try {
+				if (timeline_only || TwitterService.widgetIsEnabled) {
+					final String maxId = getDb().fetchMaxTweetId(owner,
 							StatusTable.TYPE_HOME);
-
-					if (count <= 0) {
-						return TaskResult.FAILED;
-					}
+					Log.d(TAG, "Max id is:" + maxId);
+					homeFuture = executor
+							.submit(new FetchCall<List<com.ch_linghu.fanfoudroid.fanfou.Status>>() {
+								@Override
+								protected List<com.ch_linghu.fanfoudroid.fanfou.Status> fetch()
+										throws HttpException {
+									if (maxId != null) {
+										return getApi().getFriendsTimeline(
+												new Paging(maxId));
+									}
+									return getApi().getFriendsTimeline();
+								}
+							});
 				}
 
-				if (isCancelled()) {
-					return TaskResult.CANCELLED;
+				if (replies_only) {
+					final String maxMentionId = getDb().fetchMaxTweetId(owner,
+							StatusTable.TYPE_MENTION);
+					Log.d(TAG, "Max mention id is:" + maxMentionId);
+					mentionFuture = executor
+							.submit(new FetchCall<List<com.ch_linghu.fanfoudroid.fanfou.Status>>() {
+								@Override
+								protected List<com.ch_linghu.fanfoudroid.fanfou.Status> fetch()
+										throws HttpException {
+									if (maxMentionId != null) {
+										return getApi().getMentions(
+												new Paging(maxMentionId));
+									}
+									return getApi().getMentions();
+								}
+							});
 				}
-			}
-
-			if (replies_only) {
-				String maxMentionId = getDb().fetchMaxTweetId(
-						TwitterApplication.getMyselfId(false),
-						StatusTable.TYPE_MENTION);
-				Log.d(TAG, "Max mention id is:" + maxMentionId);
 
-				List<com.ch_linghu.fanfoudroid.fanfou.Status> statusList;
+				if (dm_only) {
+					final String maxDmId = getDb().fetchMaxDmId(false);
+					Log.d(TAG, "Max DM id is:" + maxDmId);
+					dmFuture = executor
+							.submit(new FetchCall<List<com.ch_linghu.fanfoudroid.fanfou.DirectMessage>>() {
+								@Override
+								protected List<com.ch_linghu.fanfoudroid.fanfou.DirectMessage> fetch()
+										throws HttpException {
+									if (maxDmId != null) {
+										return getApi().getDirectMessages(
+												new Paging(maxDmId));
+									}
+									return getApi().getDirectMessages();
+								}
+							});
+				}
 
+				// 某一类失败时, 其他已获取的消息仍然写入数据库
 				try {
-					if (maxMentionId != null) {
-						statusList = getApi().getMentions(
-								new Paging(maxMentionId));
-					} else {
-						statusList = getApi().getMentions();
-					}
-				} catch (HttpException e) {
-					Log.e(TAG, e.getMessage(), e);
-					return TaskResult.IO_ERROR;
+					statusList = await(homeFuture);
+				} catch (ExecutionException e) {
+					ioError |= !isDeferred(e);
 				}
-
-				int unReadMentionsCount = 0;
-				for (com.ch_linghu.fanfoudroid.fanfou.Status status : statusList) {
-					if (isCancelled()) {
-						return TaskResult.CANCELLED;
-					}
-
-					Tweet tweet = Tweet.create(status);
-					mNewMentions.add(tweet);
-
-					unReadMentionsCount = getDb().addNewTweetsAndCountUnread(
-							mNewMentions, TwitterApplication.getMyselfId(false),
-							StatusTable.TYPE_MENTION);
-
-					if (unReadMentionsCount <= 0) {
-						return TaskResult.FAILED;
-					}
+				try {
+					mentionList = await(mentionFuture);
+				} catch (ExecutionException e) {
+					ioError |= !isDeferred(e);
 				}
-				Log.v(TAG, "Got mentions " + unReadMentionsCount + "/"
-						+ mNewMentions.size());
-
-				if (isCancelled()) {
-					return TaskResult.CANCELLED;
+				try {
+					dmList = await(dmFuture);
+				} catch (ExecutionException e) {
+					ioError |= !isDeferred(e);
 				}
+			} catch (InterruptedException e) {
+				return TaskResult.CANCELLED;
+			} finally {
+				// 任务被取消时中断仍在进行的请求
+				executor.shutdownNow();
 			}
 
-			if (dm_only) {
-				String maxId = getDb().fetchMaxDmId(false);
-				Log.d(TAG, "Max DM id is:" + maxId);
-
-				List<com.ch_linghu.fanfoudroid.fanfou.DirectMessage> dmList;
+			if (isCancelled()) {
+				return TaskResult.CANCELLED;
+			}
 
-				try {
-					if (maxId != null) {
-						dmList = getApi().getDirectMessages(new Paging(maxId));
-					} else {
-						dmList = getApi().getDirectMessages();
-					}
-				} catch (HttpException e) {
-					Log.e(TAG, e.getMessage(), e);
-					return TaskResult.IO_ERROR;
+			if (null != statusList) {
+				for (com.ch_linghu.fanfoudroid.fanfou.Status status : statusList) {
+					mNewTweets.add(Tweet.create(status));
 				}
-
+				Log.d(TAG, mNewTweets.size() + " new tweets.");
+			}
+			if (null != mentionList) {
+				for (com.ch_linghu.fanfoudroid.fanfou.Status status : mentionList) {
+					mNewMentions.add(Tweet.create(status));
+				}
+			}
+			if (null != dmList) {
 				for (com.ch_linghu.fanfoudroid.fanfou.DirectMessage directMessage : dmList) {
-					if (isCancelled()) {
-						return TaskResult.CANCELLED;
-					}
+					mNewDms.add(Dm.create(directMessage, false));
+				}
+				Log.d(TAG, mNewDms.size() + " new DMs.");
+			}
 
-					Dm dm;
+			// 所有新消息作为一次写操作在写线程的同一个事务中写入
+			final TwitterDatabase db = getDb();
+			boolean failed = db.getWriter().execute(
+					new DbWriter.Operation<Boolean>() {
+						@Override
+						public Boolean execute(SQLiteDatabase sqlite) {
+							return store(db, owner);
+						}
+					});
+
+			if (ioError) {
+				return TaskResult.IO_ERROR;
+			}
+			if (failed) {
+				return TaskResult.FAILED;
+			}
+			return TaskResult.OK;
+		}
 
-					dm = Dm.create(directMessage, false);
+		/**
+		 * @return 是否因API配额不足被推迟; 此时跳过本次获取, 不算作错误
+		 */
+		private boolean isDeferred(ExecutionException e) {
+			if (e.getCause() instanceof RateLimitException) {
+				Log.i(TAG, "Skip this cycle: " + e.getCause().getMessage());
+				return true;
+			}
+			Log.e(TAG, e.getMessage(), e.getCause());
+			return false;
+		}
 
-					mNewDms.add(dm);
-					Log.d(TAG, mNewDms.size() + " new DMs.");
+		/**
+		 * 写入新获取的消息, 在写线程上执行
+		 * 
+		 * @return 是否有某一类消息写入后未读数为0
+		 */
+		private boolean store(TwitterDatabase db, String owner) {
+			boolean failed = false;
+			if (mNewTweets.size() > 0) {
+				TwitterDatabase.IngestResult home = db.ingestTweets(
+						mNewTweets, owner, StatusTable.TYPE_HOME, true);
+				Log.v(TAG, "Inserted " + home.inserted + "/"
+						+ mNewTweets.size() + " tweets");
+				failed |= home.unread <= 0;
+			}
 
-					int count = 0;
+			if (mNewMentions.size() > 0) {
+				TwitterDatabase.IngestResult mentions = db.ingestTweets(
+						mNewMentions, owner, StatusTable.TYPE_MENTION, true);
+				Log.v(TAG, "Got mentions " + mentions.unread + "/"
+						+ mNewMentions.size());
+				failed |= mentions.unread <= 0;
+			}
 
-					TwitterDatabase db = getDb();
+			if (mNewDms.size() > 0) {
+				int count = 0;
+				if (db.fetchDmCount() > 0) {
+					count = db.addNewDmsAndCountUnread(mNewDms);
+				} else {
+					Log.d(TAG, "No existing DMs. Don't notify.");
+					db.addDms(mNewDms, false);
+				}
+				failed |= count <= 0;
+			}
+			return failed;
+		}
 
-					if (db.fetchDmCount() > 0) {
-						count = db.addNewDmsAndCountUnread(mNewDms);
-					} else {
-						Log.d(TAG, "No existing DMs. Don't notify.");
-						db.addDms(mNewDms, false);
-					}
+		private <T> T await(Future<T> future) throws InterruptedException,
+				ExecutionException {
+			return (null == future) ? null : future.get();
+		}
+	}
 
-					if (count <= 0) {
-						return TaskResult.FAILED;
-					}
-				}
+	/**
+	 * 在线程池中执行的请求, 沿用提交任务的线程的请求优先级
+	 */
+	private static abstract class FetchCall<T> implements Callable<T> {
+		private final RequestPriority mPriority = RequestPriority.current();
 
-				if (isCancelled()) {
-					return TaskResult.CANCELLED;
-				}
+		@Override
+		public T call() throws Exception {
+			RequestPriority previous = RequestPriority.setCurrent(mPriority);
+			try {
+				return fetch();
+			} finally {
+				RequestPriority.setCurrent(previous);
 			}
-			return TaskResult.OK;
 		}
+
+		protected abstract T fetch() throws HttpException;
 	}
 }
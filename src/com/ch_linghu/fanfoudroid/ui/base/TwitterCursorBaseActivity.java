@@ -16,7 +16,6 @@
 package com.ch_linghu.fanfoudroid.ui.base;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import android.content.SharedPreferences;
@@ -565,8 +564,10 @@ public abstract class TwitterCursorBaseActivity extends TwitterListBaseActivity
             try {
                 // TODO: 目前仅做新API兼容性改动，待完善Follower处理
                 IDs followers = getApi().getFollowersIDs();
-                List<String> followerIds = Arrays.asList(followers.getIDs());
-                getDb().syncFollowers(followerIds);
+                getDb().syncFollowers(followers.getIdSet());
+                // 与followers求交集得到可以发私信的互相关注用户
+                IDs friends = getApi().getFriendsIDs();
+                getDb().setFriendIds(friends.getIdSet());
             } catch (HttpException e) {
                 Log.e(TAG, e.getMessage(), e);
                 return TaskResult.IO_ERROR;
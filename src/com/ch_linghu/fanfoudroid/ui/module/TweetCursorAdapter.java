@@ -3,14 +3,12 @@
  */
 package com.ch_linghu.fanfoudroid.ui.module;
 
-import java.text.ParseException;
 import java.util.Date;
 
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.text.TextUtils;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -26,7 +24,6 @@ import com.ch_linghu.fanfoudroid.app.Preferences;
 import com.ch_linghu.fanfoudroid.app.SimpleImageLoader;
 import com.ch_linghu.fanfoudroid.data.Tweet;
 import com.ch_linghu.fanfoudroid.db.StatusTable;
-import com.ch_linghu.fanfoudroid.db.TwitterDatabase;
 import com.ch_linghu.fanfoudroid.util.TextHelper;
 
 public class TweetCursorAdapter extends CursorAdapter implements TweetAdapter {
@@ -174,17 +171,11 @@ public class TweetCursorAdapter extends CursorAdapter implements TweetAdapter {
 			holder.retweet.setVisibility(View.GONE);
 		}
 
-		try {
-			Date createdAt = TwitterDatabase.DB_DATE_FORMATTER.parse(cursor
-					.getString(mCreatedAtColumn));
-			holder.metaText.setText(Tweet.buildMetaText(mMetaBuilder,
-					createdAt, cursor.getString(mSourceColumn),
-					cursor.getString(mInReplyToScreenName),
-					cursor.getString(mRepostUserId)
-					));
-		} catch (ParseException e) {
-			Log.w(TAG, "Invalid created at data.");
-		}
+		Date createdAt = new Date(cursor.getLong(mCreatedAtColumn));
+		holder.metaText.setText(Tweet.buildMetaText(mMetaBuilder, createdAt,
+				cursor.getString(mSourceColumn),
+				cursor.getString(mInReplyToScreenName),
+				cursor.getString(mRepostUserId)));
 		
 		/**
 		 * 添加特殊行的背景色
@@ -24,10 +24,14 @@ public class DateTimeHelper {
 			"E, d MMM yyyy HH:mm:ss Z", Locale.US); // TODO: Z -> z ?
 
 	public static final Date parseDateTime(String dateString) {
+		Date date = FanfouDateParser.parse(dateString);
+		if (null != date) {
+			return date;
+		}
 		try {
-			Log.v(TAG, String.format("in parseDateTime, dateString=%s",
-					dateString));
-			return TWITTER_DATE_FORMATTER.parse(dateString);
+			synchronized (TWITTER_DATE_FORMATTER) {
+				return TWITTER_DATE_FORMATTER.parse(dateString);
+			}
 		} catch (ParseException e) {
 			Log.w(TAG, "Could not parse Twitter date string: " + dateString);
 			return null;
@@ -47,8 +51,14 @@ public class DateTimeHelper {
 	}
 
 	public static final Date parseSearchApiDateTime(String dateString) {
+		Date date = FanfouDateParser.parseSearchApi(dateString);
+		if (null != date) {
+			return date;
+		}
 		try {
-			return TWITTER_SEARCH_API_DATE_FORMATTER.parse(dateString);
+			synchronized (TWITTER_SEARCH_API_DATE_FORMATTER) {
+				return TWITTER_SEARCH_API_DATE_FORMATTER.parse(dateString);
+			}
 		} catch (ParseException e) {
 			Log.w(TAG, "Could not parse Twitter search date string: "
 					+ dateString);
@@ -0,0 +1,314 @@
+package com.ch_linghu.fanfoudroid.util;
+
+import java.util.Date;
+
+/**
+ * 解析API返回的固定格式时间, 不使用SimpleDateFormat
+ *
+ * <li>created_at: "Wed Dec 15 02:53:36 +0000 2010"</li>
+ * <li>Search API: "Wed, 15 Dec 2010 02:53:36 +0000"</li>
+ *
+ * 直接在字符上计算, 不分配中间对象, 也没有共享的状态, 因此无需加锁即可在多个线程中
+ * 同时使用. 遇到不符合格式的输入时返回INVALID/null, 由调用者改用SimpleDateFormat.
+ */
+public final class FanfouDateParser {
+
+	/** 无法解析 */
+	public static final long INVALID = Long.MIN_VALUE;
+
+	private static final long SECOND = 1000;
+	private static final long MINUTE = 60 * SECOND;
+	private static final long HOUR = 60 * MINUTE;
+	private static final long DAY = 24 * HOUR;
+
+	private FanfouDateParser() {
+	}
+
+	/**
+	 * @param str
+	 *            "EEE MMM dd HH:mm:ss Z yyyy", 如 "Wed Dec 15 02:53:36 +0000 2010"
+	 * @return Date, 格式不符时返回null
+	 */
+	public static Date parse(String str) {
+		long time = parseMillis(str);
+		return (time == INVALID) ? null : new Date(time);
+	}
+
+	/**
+	 * @param str
+	 *            "EEE MMM dd HH:mm:ss Z yyyy"
+	 * @return epoch millis, 格式不符时返回INVALID
+	 */
+	public static long parseMillis(String str) {
+		if (null == str) {
+			return INVALID;
+		}
+		int len = str.length();
+		// "EEE MMM " 之后是日期
+		if (len < 8 || !isLetters(str, 0, 3) || str.charAt(3) != ' '
+				|| str.charAt(7) != ' ') {
+			return INVALID;
+		}
+		int month = parseMonth(str, 4);
+		if (month < 0) {
+			return INVALID;
+		}
+
+		int pos = 8;
+		int dayEnd = skipDigits(str, pos);
+		if (dayEnd == pos || dayEnd - pos > 2 || dayEnd >= len
+				|| str.charAt(dayEnd) != ' ') {
+			return INVALID;
+		}
+		int day = parseInt(str, pos, dayEnd);
+		pos = dayEnd + 1;
+
+		long timeOfDay = parseTime(str, pos);
+		if (timeOfDay == INVALID) {
+			return INVALID;
+		}
+		pos += 8;
+		if (pos >= len || str.charAt(pos) != ' ') {
+			return INVALID;
+		}
+		pos++;
+
+		int zoneEnd = str.indexOf(' ', pos);
+		if (zoneEnd < 0) {
+			return INVALID;
+		}
+		long offset = parseZone(str, pos, zoneEnd);
+		if (offset == INVALID) {
+			return INVALID;
+		}
+		pos = zoneEnd + 1;
+
+		if (len - pos != 4 || skipDigits(str, pos) != len) {
+			return INVALID;
+		}
+		int year = parseInt(str, pos, len);
+
+		return toMillis(year, month, day, timeOfDay, offset);
+	}
+
+	/**
+	 * @param str
+	 *            "EEE, d MMM yyyy HH:mm:ss Z", 如 "Wed, 15 Dec 2010 02:53:36 +0000"
+	 * @return Date, 格式不符时返回null
+	 */
+	public static Date parseSearchApi(String str) {
+		long time = parseSearchApiMillis(str);
+		return (time == INVALID) ? null : new Date(time);
+	}
+
+	/**
+	 * @param str
+	 *            "EEE, d MMM yyyy HH:mm:ss Z"
+	 * @return epoch millis, 格式不符时返回INVALID
+	 */
+	public static long parseSearchApiMillis(String str) {
+		if (null == str) {
+			return INVALID;
+		}
+		int len = str.length();
+		if (len < 6 || !isLetters(str, 0, 3) || str.charAt(3) != ','
+				|| str.charAt(4) != ' ') {
+			return INVALID;
+		}
+
+		int pos = 5;
+		int dayEnd = skipDigits(str, pos);
+		if (dayEnd == pos || dayEnd - pos > 2 || dayEnd + 10 > len
+				|| str.charAt(dayEnd) != ' ') {
+			return INVALID;
+		}
+		int day = parseInt(str, pos, dayEnd);
+		pos = dayEnd + 1;
+
+		int month = parseMonth(str, pos);
+		if (month < 0 || str.charAt(pos + 3) != ' ') {
+			return INVALID;
+		}
+		pos += 4;
+
+		if (skipDigits(str, pos) != pos + 4 || str.charAt(pos + 4) != ' ') {
+			return INVALID;
+		}
+		int year = parseInt(str, pos, pos + 4);
+		pos += 5;
+
+		long timeOfDay = parseTime(str, pos);
+		if (timeOfDay == INVALID) {
+			return INVALID;
+		}
+		pos += 8;
+		if (pos >= len || str.charAt(pos) != ' ') {
+			return INVALID;
+		}
+		long offset = parseZone(str, pos + 1, len);
+		if (offset == INVALID) {
+			return INVALID;
+		}
+
+		return toMillis(year, month, day, timeOfDay, offset);
+	}
+
+	/**
+	 * "HH:mm:ss"
+	 * 
+	 * @return 当天的毫秒数
+	 */
+	private static long parseTime(String str, int pos) {
+		if (pos + 8 > str.length() || str.charAt(pos + 2) != ':'
+				|| str.charAt(pos + 5) != ':') {
+			return INVALID;
+		}
+		int hour = parse2Digits(str, pos);
+		int minute = parse2Digits(str, pos + 3);
+		int second = parse2Digits(str, pos + 6);
+		if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0
+				|| second > 60) {
+			return INVALID;
+		}
+		return hour * HOUR + minute * MINUTE + second * SECOND;
+	}
+
+	/**
+	 * "+0800", "-0500", "GMT", "UTC"
+	 * 
+	 * @return 相对UTC的毫秒数
+	 */
+	private static long parseZone(String str, int start, int end) {
+		int len = end - start;
+		if (len == 5) {
+			char sign = str.charAt(start);
+			if (sign != '+' && sign != '-') {
+				return INVALID;
+			}
+			int hours = parse2Digits(str, start + 1);
+			int minutes = parse2Digits(str, start + 3);
+			if (hours < 0 || minutes < 0 || minutes > 59) {
+				return INVALID;
+			}
+			long offset = hours * HOUR + minutes * MINUTE;
+			return (sign == '-') ? -offset : offset;
+		}
+		if (len == 3
+				&& (str.regionMatches(start, "GMT", 0, 3) || str
+						.regionMatches(start, "UTC", 0, 3))) {
+			return 0;
+		}
+		return INVALID;
+	}
+
+	/**
+	 * 三个字母的英文月份缩写
+	 * 
+	 * @return 1-12, 无法识别时返回-1
+	 */
+	private static int parseMonth(String str, int pos) {
+		if (pos + 3 > str.length()) {
+			return -1;
+		}
+		char a = str.charAt(pos);
+		char b = str.charAt(pos + 1);
+		char c = str.charAt(pos + 2);
+		switch (a) {
+		case 'J':
+			if (b == 'a' && c == 'n')
+				return 1;
+			if (b == 'u' && c == 'n')
+				return 6;
+			if (b == 'u' && c == 'l')
+				return 7;
+			return -1;
+		case 'F':
+			return (b == 'e' && c == 'b') ? 2 : -1;
+		case 'M':
+			if (b == 'a' && c == 'r')
+				return 3;
+			if (b == 'a' && c == 'y')
+				return 5;
+			return -1;
+		case 'A':
+			if (b == 'p' && c == 'r')
+				return 4;
+			if (b == 'u' && c == 'g')
+				return 8;
+			return -1;
+		case 'S':
+			return (b == 'e' && c == 'p') ? 9 : -1;
+		case 'O':
+			return (b == 'c' && c == 't') ? 10 : -1;
+		case 'N':
+			return (b == 'o' && c == 'v') ? 11 : -1;
+		case 'D':
+			return (b == 'e' && c == 'c') ? 12 : -1;
+		default:
+			return -1;
+		}
+	}
+
+	private static long toMillis(int year, int month, int day, long timeOfDay,
+			long offset) {
+		if (day < 1 || day > 31) {
+			return INVALID;
+		}
+		return daysFromCivil(year, month, day) * DAY + timeOfDay - offset;
+	}
+
+	/**
+	 * 公历日期距1970-01-01的天数
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		year -= (month <= 2) ? 1 : 0;
+		long era = (year >= 0 ? year : year - 399) / 400;
+		long yearOfEra = year - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day
+				- 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+				+ dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	private static boolean isLetters(String str, int start, int end) {
+		if (end > str.length()) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (!Character.isLetter(str.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int skipDigits(String str, int pos) {
+		int len = str.length();
+		while (pos < len && isDigit(str.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static int parseInt(String str, int start, int end) {
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			value = value * 10 + (str.charAt(i) - '0');
+		}
+		return value;
+	}
+
+	private static int parse2Digits(String str, int pos) {
+		char a = str.charAt(pos);
+		char b = str.charAt(pos + 1);
+		if (!isDigit(a) || !isDigit(b)) {
+			return -1;
+		}
+		return (a - '0') * 10 + (b - '0');
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
@@ -0,0 +1,334 @@
+package com.ch_linghu.fanfoudroid.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * 有序且不重复的用户ID集合, 以String[]保存
+ * 
+ * 饭否的用户ID是字符串(如"fanfouapi"), 无法使用long[], 但一个有序数组仍远比HashSet紧凑:
+ * contains为二分查找, 差集和交集都可以在一次归并中求出.
+ * 
+ * 持久化时使用{@link #toBytes()}的前缀压缩格式, 有序ID的公共前缀只保存一次.
+ */
+public final class IdSet implements Serializable {
+	private static final long serialVersionUID = 4417502127433695376L;
+
+	public static final IdSet EMPTY = new IdSet(new String[0], 0);
+
+	private static final String CHARSET = "UTF-8";
+	// toBytes()格式的版本号, 写在第一个字节
+	private static final int FORMAT_VERSION = 1;
+
+	private final String[] mIds;
+	private final int mSize;
+
+	private IdSet(String[] ids, int size) {
+		mIds = ids;
+		mSize = size;
+	}
+
+	/**
+	 * 逐个添加ID, 解析API返回时避免先构造中间数组再复制
+	 */
+	public static final class Builder {
+		private String[] mIds;
+		private int mCount = 0;
+
+		public Builder(int expectedSize) {
+			mIds = new String[Math.max(expectedSize, 4)];
+		}
+
+		/**
+		 * @param id
+		 *            null被忽略
+		 */
+		public Builder add(String id) {
+			if (null != id) {
+				if (mCount == mIds.length) {
+					String[] grown = new String[mCount * 2];
+					System.arraycopy(mIds, 0, grown, 0, mCount);
+					mIds = grown;
+				}
+				mIds[mCount++] = id;
+			}
+			return this;
+		}
+
+		/**
+		 * 调用后Builder不能再使用
+		 */
+		public IdSet build() {
+			String[] ids = mIds;
+			mIds = null;
+			return sortedOf(ids, mCount);
+		}
+	}
+
+	/**
+	 * @param ids
+	 *            可以无序或重复, null元素被忽略, 数组不会被修改
+	 */
+	public static IdSet of(String[] ids) {
+		if (null == ids || 0 == ids.length) {
+			return EMPTY;
+		}
+		Builder builder = new Builder(ids.length);
+		for (String id : ids) {
+			builder.add(id);
+		}
+		return builder.build();
+	}
+
+	public static IdSet of(Collection<String> ids) {
+		return of(ids.toArray(new String[ids.size()]));
+	}
+
+	// 对ids的前n个元素原地排序并去重, 不复制数组
+	private static IdSet sortedOf(String[] ids, int n) {
+		if (0 == n) {
+			return EMPTY;
+		}
+		Arrays.sort(ids, 0, n);
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			if (0 == size || !ids[i].equals(ids[size - 1])) {
+				ids[size++] = ids[i];
+			}
+		}
+		return new IdSet(ids, size);
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public boolean isEmpty() {
+		return 0 == mSize;
+	}
+
+	/**
+	 * @return 按升序的第index个ID
+	 */
+	public String get(int index) {
+		if (index < 0 || index >= mSize) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ mSize);
+		}
+		return mIds[index];
+	}
+
+	public boolean contains(String id) {
+		return null != id && Arrays.binarySearch(mIds, 0, mSize, id) >= 0;
+	}
+
+	/**
+	 * 差集, 即在本集合中但不在other中的ID
+	 */
+	public IdSet minus(IdSet other) {
+		if (other.isEmpty()) {
+			return this;
+		}
+		String[] result = new String[mSize];
+		int n = 0;
+		int i = 0, j = 0;
+		while (i < mSize) {
+			int cmp = (j < other.mSize) ? mIds[i].compareTo(other.mIds[j])
+					: -1;
+			if (cmp < 0) {
+				result[n++] = mIds[i++];
+			} else if (cmp > 0) {
+				j++;
+			} else {
+				i++;
+				j++;
+			}
+		}
+		return (0 == n) ? EMPTY : new IdSet(result, n);
+	}
+
+	/**
+	 * 交集, 如followers与friends的交集即为互相关注的用户
+	 */
+	public IdSet intersect(IdSet other) {
+		String[] result = new String[Math.min(mSize, other.mSize)];
+		int n = 0;
+		int i = 0, j = 0;
+		while (i < mSize && j < other.mSize) {
+			int cmp = mIds[i].compareTo(other.mIds[j]);
+			if (cmp < 0) {
+				i++;
+			} else if (cmp > 0) {
+				j++;
+			} else {
+				result[n++] = mIds[i];
+				i++;
+				j++;
+			}
+		}
+		return (0 == n) ? EMPTY : new IdSet(result, n);
+	}
+
+	/**
+	 * @return 升序排列的ID数组副本
+	 */
+	public String[] toArray() {
+		String[] ids = new String[mSize];
+		System.arraycopy(mIds, 0, ids, 0, mSize);
+		return ids;
+	}
+
+	/**
+	 * 序列化为紧凑格式:
+	 * 
+	 * <pre>
+	 * version(1字节) size(varint)
+	 * { 与前一个ID的公共前缀字节数(varint) 后缀字节数(varint) 后缀(UTF-8) } * size
+	 * </pre>
+	 */
+	public byte[] toBytes() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(8 + mSize * 8);
+		out.write(FORMAT_VERSION);
+		writeVarint(out, mSize);
+		byte[] prev = new byte[0];
+		for (int i = 0; i < mSize; i++) {
+			byte[] cur = utf8(mIds[i]);
+			int shared = 0;
+			int max = Math.min(prev.length, cur.length);
+			while (shared < max && prev[shared] == cur[shared]) {
+				shared++;
+			}
+			writeVarint(out, shared);
+			writeVarint(out, cur.length - shared);
+			out.write(cur, shared, cur.length - shared);
+			prev = cur;
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             数据不是{@link #toBytes()}的格式
+	 */
+	public static IdSet fromBytes(byte[] data) {
+		int[] pos = new int[] { 0 };
+		if (0 == data.length || FORMAT_VERSION != data[pos[0]++]) {
+			throw new IllegalArgumentException("Unknown IdSet format");
+		}
+		int size = readVarint(data, pos);
+		// 每个ID至少占一个字节, 先校验再分配, 防止损坏的数据导致分配超大数组
+		if (size < 0 || size > data.length - pos[0]) {
+			throw new IllegalArgumentException("Corrupt IdSet size: " + size);
+		}
+		String[] ids = new String[size];
+		byte[] prev = new byte[0];
+		try {
+			for (int i = 0; i < size; i++) {
+				int shared = readVarint(data, pos);
+				int suffix = readVarint(data, pos);
+				if (shared < 0 || shared > prev.length || suffix < 0
+						|| suffix > data.length - pos[0]) {
+					throw new IllegalArgumentException("Corrupt IdSet data");
+				}
+				byte[] cur = new byte[shared + suffix];
+				System.arraycopy(prev, 0, cur, 0, shared);
+				System.arraycopy(data, pos[0], cur, shared, suffix);
+				pos[0] += suffix;
+				ids[i] = new String(cur, CHARSET);
+				prev = cur;
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+		// 数据由toBytes()写出时已有序, 这里仍排序以防被篡改
+		return sortedOf(ids, size);
+	}
+
+	private static byte[] utf8(String s) {
+		try {
+			return s.getBytes(CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarint(byte[] data, int[] pos) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (pos[0] >= data.length) {
+				throw new IllegalArgumentException("Truncated IdSet data");
+			}
+			byte b = data[pos[0]++];
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	// Java序列化也使用紧凑格式
+	private Object writeReplace() throws ObjectStreamException {
+		return new SerializedForm(toBytes());
+	}
+
+	private static final class SerializedForm implements Serializable {
+		private static final long serialVersionUID = -2043364713935853412L;
+
+		private final byte[] mData;
+
+		SerializedForm(byte[] data) {
+			mData = data;
+		}
+
+		private Object readResolve() throws ObjectStreamException {
+			return fromBytes(mData);
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof IdSet)) {
+			return false;
+		}
+		IdSet other = (IdSet) o;
+		if (mSize != other.mSize) {
+			return false;
+		}
+		for (int i = 0; i < mSize; i++) {
+			if (!mIds[i].equals(other.mIds[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 1;
+		for (int i = 0; i < mSize; i++) {
+			hash = 31 * hash + mIds[i].hashCode();
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return "IdSet" + Arrays.asList(toArray());
+	}
+}
@@ -0,0 +1,68 @@
+package com.ch_linghu.fanfoudroid.test;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.ch_linghu.fanfoudroid.app.BitmapDecoder;
+import com.ch_linghu.fanfoudroid.app.BitmapLruCache;
+
+/**
+ * 按目标尺寸解码时的inSampleSize和像素格式, 以及头像占用的内存
+ */
+public class BitmapDecoderTest extends TestCase {
+	private static final String TAG = "BitmapDecoderTest";
+
+	// hdpi下64dp
+	private static final int AVATAR_PX = 96;
+
+	public void testInSampleSize() {
+		assertEquals(1, BitmapDecoder.calculateInSampleSize(96, 96, 96, 96));
+		assertEquals(1, BitmapDecoder.calculateInSampleSize(191, 191, 96, 96));
+		assertEquals(2, BitmapDecoder.calculateInSampleSize(192, 192, 96, 96));
+		assertEquals(4, BitmapDecoder.calculateInSampleSize(500, 400, 96, 96));
+		// 较短的一边决定比例
+		assertEquals(2, BitmapDecoder.calculateInSampleSize(1000, 200, 96, 96));
+		// 只限制宽度
+		assertEquals(2, BitmapDecoder.calculateInSampleSize(1200, 5000, 460, 0));
+		assertEquals(1, BitmapDecoder.calculateInSampleSize(1200, 5000, 0, 0));
+	}
+
+	private static byte[] encode(int size, Bitmap.CompressFormat format) {
+		Bitmap bitmap = Bitmap.createBitmap(size, size,
+				Bitmap.Config.ARGB_8888);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		bitmap.compress(format, 90, out);
+		bitmap.recycle();
+		return out.toByteArray();
+	}
+
+	public void testJpegAvatarIsDownsampledTo565() {
+		byte[] data = encode(AVATAR_PX * 4, Bitmap.CompressFormat.JPEG);
+
+		Bitmap bitmap = BitmapDecoder.decodeByteArray(data, AVATAR_PX,
+				AVATAR_PX);
+		assertEquals(AVATAR_PX, bitmap.getWidth());
+		assertEquals(Bitmap.Config.RGB_565, bitmap.getConfig());
+
+		int full = AVATAR_PX * 4 * AVATAR_PX * 4 * 4;
+		int decoded = BitmapLruCache.sizeOf(bitmap);
+		Log.d(TAG, "full=" + full + " decoded=" + decoded);
+		assertEquals(full / 32, decoded);
+	}
+
+	public void testPngKeepsAlpha() {
+		byte[] data = encode(AVATAR_PX, Bitmap.CompressFormat.PNG);
+
+		Bitmap bitmap = BitmapDecoder.decodeByteArray(data, AVATAR_PX,
+				AVATAR_PX);
+		assertEquals(Bitmap.Config.ARGB_8888, bitmap.getConfig());
+	}
+
+	public void testUndecodableReturnsNull() {
+		assertNull(BitmapDecoder.decodeByteArray(new byte[] { 1, 2, 3 }, 10,
+				10));
+	}
+}
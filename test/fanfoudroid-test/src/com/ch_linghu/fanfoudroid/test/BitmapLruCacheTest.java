@@ -0,0 +1,77 @@
+package com.ch_linghu.fanfoudroid.test;
+
+import junit.framework.TestCase;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.ch_linghu.fanfoudroid.app.BitmapLruCache;
+
+/**
+ * BitmapLruCache的淘汰顺序和统计, 以及60行时间线来回滚动时的命中率
+ */
+public class BitmapLruCacheTest extends TestCase {
+	private static final String TAG = "BitmapLruCacheTest";
+
+	// 48dp头像在hdpi下为72px
+	private static final int AVATAR_PX = 72;
+	private static final int TIMELINE_ROWS = 60;
+
+	private static Bitmap avatar() {
+		return Bitmap.createBitmap(AVATAR_PX, AVATAR_PX,
+				Bitmap.Config.ARGB_8888);
+	}
+
+	public void testEvictsLeastRecentlyUsed() {
+		int size = BitmapLruCache.sizeOf(avatar());
+		BitmapLruCache cache = new BitmapLruCache(size * 2);
+
+		cache.put("a", avatar());
+		cache.put("b", avatar());
+		assertNotNull(cache.get("a")); // b成为最久未使用
+		cache.put("c", avatar());
+
+		assertTrue(cache.contains("a"));
+		assertFalse(cache.contains("b"));
+		assertTrue(cache.contains("c"));
+		assertEquals(size * 2, cache.size());
+		assertEquals(1, cache.evictionCount());
+		assertNull(cache.get("b"));
+		assertEquals(1, cache.hitCount());
+		assertEquals(1, cache.missCount());
+	}
+
+	public void testRejectsOversizedBitmap() {
+		BitmapLruCache cache = new BitmapLruCache(16);
+		cache.put("big", avatar());
+		assertFalse(cache.contains("big"));
+		assertEquals(0, cache.size());
+	}
+
+	public void testEvictAll() {
+		BitmapLruCache cache = new BitmapLruCache(
+				BitmapLruCache.defaultMaxBytes());
+		cache.put("a", avatar());
+		cache.evictAll();
+		assertEquals(0, cache.count());
+		assertEquals(0, cache.size());
+	}
+
+	public void testTimelineScrollServedFromMemory() {
+		BitmapLruCache cache = new BitmapLruCache(
+				BitmapLruCache.defaultMaxBytes());
+		for (int i = 0; i < TIMELINE_ROWS; i++) {
+			cache.put("avatar" + i, avatar());
+		}
+
+		// 上下滚动三遍
+		for (int pass = 0; pass < 3; pass++) {
+			for (int i = 0; i < TIMELINE_ROWS; i++) {
+				int row = (pass % 2 == 0) ? i : TIMELINE_ROWS - 1 - i;
+				assertNotNull(cache.get("avatar" + row));
+			}
+		}
+		Log.d(TAG, cache.toString());
+		assertEquals(0, cache.missCount());
+		assertEquals(0, cache.evictionCount());
+	}
+}
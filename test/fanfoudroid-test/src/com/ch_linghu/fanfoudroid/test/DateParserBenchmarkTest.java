@@ -0,0 +1,142 @@
+package com.ch_linghu.fanfoudroid.test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+import android.util.Log;
+
+import com.ch_linghu.fanfoudroid.util.FanfouDateParser;
+
+/**
+ * 比较FanfouDateParser与原先共享SimpleDateFormat加锁解析的结果和耗时
+ */
+public class DateParserBenchmarkTest extends TestCase {
+	private static final String TAG = "DateParserBenchmark";
+
+	private static final int DATES = 2000;
+	private static final int THREADS = 4;
+	private static final int ROUNDS = 5;
+
+	private String[] mCreatedAt;
+	private String[] mSearchApi;
+	private SimpleDateFormat mCreatedAtFormat;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mCreatedAtFormat = new SimpleDateFormat("EEE MMM dd HH:mm:ss z yyyy",
+				Locale.US);
+		mCreatedAtFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+		SimpleDateFormat searchFormat = new SimpleDateFormat(
+				"EEE, d MMM yyyy HH:mm:ss Z", Locale.US);
+		searchFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+		Random random = new Random(42);
+		mCreatedAt = new String[DATES];
+		mSearchApi = new String[DATES];
+		for (int i = 0; i < DATES; i++) {
+			// 2000-2030年之间的随机时间, 精确到秒
+			long time = (946684800L + (long) (random.nextDouble() * 946684800L)) * 1000;
+			mCreatedAt[i] = mCreatedAtFormat.format(new Date(time))
+					.replace("GMT", "+0000");
+			mSearchApi[i] = searchFormat.format(new Date(time));
+		}
+	}
+
+	public void testMatchesSimpleDateFormat() throws ParseException {
+		for (String str : mCreatedAt) {
+			assertEquals(str, mCreatedAtFormat.parse(str).getTime(),
+					FanfouDateParser.parseMillis(str));
+		}
+		assertEquals(1292381616000L,
+				FanfouDateParser.parseMillis("Wed Dec 15 02:53:36 +0000 2010"));
+		assertEquals(1292381616000L,
+				FanfouDateParser.parseMillis("Wed Dec 15 10:53:36 +0800 2010"));
+		assertEquals(1292381616000L, FanfouDateParser
+				.parseSearchApiMillis("Wed, 15 Dec 2010 02:53:36 +0000"));
+	}
+
+	public void testSearchApiFormat() throws ParseException {
+		SimpleDateFormat format = new SimpleDateFormat(
+				"EEE, d MMM yyyy HH:mm:ss Z", Locale.US);
+		for (String str : mSearchApi) {
+			assertEquals(str, format.parse(str).getTime(),
+					FanfouDateParser.parseSearchApiMillis(str));
+		}
+	}
+
+	public void testInvalidInput() {
+		assertNull(FanfouDateParser.parse(null));
+		assertNull(FanfouDateParser.parse(""));
+		assertNull(FanfouDateParser.parse("2010-12-15 02:53:36"));
+		assertNull(FanfouDateParser.parse("Wed Foo 15 02:53:36 +0000 2010"));
+		assertNull(FanfouDateParser.parse("Wed Dec 15 02:53 +0000 2010"));
+		assertNull(FanfouDateParser.parse("Wed Dec 15 02:53:36 +0000 10"));
+		assertNull(FanfouDateParser.parseSearchApi("Wed Dec 15 02:53:36 +0000 2010"));
+	}
+
+	public void testBenchmark() throws Exception {
+		long locked = Long.MAX_VALUE;
+		long lockFree = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			locked = Math.min(locked, run(new Parser() {
+				@Override
+				public long parse(String str) throws ParseException {
+					synchronized (mCreatedAtFormat) {
+						return mCreatedAtFormat.parse(str).getTime();
+					}
+				}
+			}));
+			lockFree = Math.min(lockFree, run(new Parser() {
+				@Override
+				public long parse(String str) {
+					return FanfouDateParser.parseMillis(str);
+				}
+			}));
+		}
+		Log.i(TAG, "Parsed " + THREADS + "x" + DATES
+				+ " dates: synchronized SimpleDateFormat " + locked
+				+ "ms, FanfouDateParser " + lockFree + "ms");
+	}
+
+	private interface Parser {
+		long parse(String str) throws ParseException;
+	}
+
+	/**
+	 * @return 多个线程同时解析全部日期的耗时(毫秒)
+	 */
+	private long run(final Parser parser) throws InterruptedException {
+		final Throwable[] error = new Throwable[1];
+		Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (String str : mCreatedAt) {
+							parser.parse(str);
+						}
+					} catch (Throwable e) {
+						error[0] = e;
+					}
+				}
+			};
+		}
+		long start = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		assertNull(String.valueOf(error[0]), error[0]);
+		return elapsed;
+	}
+}
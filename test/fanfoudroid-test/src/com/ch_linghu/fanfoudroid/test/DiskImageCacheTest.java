@@ -0,0 +1,169 @@
+package com.ch_linghu.fanfoudroid.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+import com.ch_linghu.fanfoudroid.app.DiskImageCache;
+
+/**
+ * DiskImageCache的按大小淘汰, 以及从journal恢复索引和清理未完成的写入
+ */
+public class DiskImageCacheTest extends TestCase {
+
+	private File mDir;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDir = new File(System.getProperty("java.io.tmpdir"),
+				"DiskImageCacheTest" + System.nanoTime());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = mDir.listFiles();
+		if (null != files) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		mDir.delete();
+		super.tearDown();
+	}
+
+	private static byte[] bytes(int size) {
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) i;
+		}
+		return data;
+	}
+
+	public void testPutGetKeepsOriginalBytes() throws IOException {
+		DiskImageCache cache = new DiskImageCache(mDir, 1000);
+		File file = cache.put("http://a", bytes(100));
+		assertEquals(100, file.length());
+		assertEquals(file, cache.get("http://a"));
+		assertNull(cache.get("http://b"));
+		assertEquals(100, cache.size());
+	}
+
+	public void testEvictsLeastRecentlyUsed() throws IOException {
+		DiskImageCache cache = new DiskImageCache(mDir, 250);
+		cache.put("http://a", bytes(100));
+		cache.put("http://b", bytes(100));
+		assertNotNull(cache.get("http://a")); // b成为最久未使用
+		cache.put("http://c", bytes(100));
+
+		assertTrue(cache.contains("http://a"));
+		assertFalse(cache.contains("http://b"));
+		assertTrue(cache.contains("http://c"));
+		assertEquals(200, cache.size());
+		assertEquals(3, mDir.list().length); // 2张图片和journal
+	}
+
+	public void testReopenRestoresIndexAndOrder() throws IOException {
+		DiskImageCache cache = new DiskImageCache(mDir, 250);
+		cache.put("http://a", bytes(100));
+		cache.put("http://b", bytes(50));
+		cache.remove("http://b");
+		cache.put("http://c", bytes(100));
+		cache.get("http://a");
+
+		DiskImageCache reopened = new DiskImageCache(mDir, 250);
+		assertEquals(200, reopened.size());
+		assertEquals(2, reopened.count());
+		assertFalse(reopened.contains("http://b"));
+
+		// a在c之后被访问过, 应先淘汰c
+		reopened.put("http://d", bytes(100));
+		assertTrue(reopened.contains("http://a"));
+		assertFalse(reopened.contains("http://c"));
+	}
+
+	private void appendJournal(String line) throws IOException {
+		FileWriter writer = new FileWriter(new File(mDir, "journal"), true);
+		writer.write(line + "\n");
+		writer.close();
+	}
+
+	public void testReopenDeletesUnfinishedTmpFiles() throws IOException {
+		DiskImageCache cache = new DiskImageCache(mDir, 1000);
+		cache.put("http://a", bytes(100));
+
+		// 写入中途被杀时残留的临时文件, 以及改名后未记录PUT的文件
+		String key = "0123456789abcdef0123456789abcdef";
+		appendJournal("DIRTY " + key + " " + key + ".7.tmp");
+		new File(mDir, key + ".7.tmp").createNewFile();
+		appendJournal("DIRTY " + key + " " + key + ".8.tmp");
+		new File(mDir, key).createNewFile();
+
+		DiskImageCache reopened = new DiskImageCache(mDir, 1000);
+		assertEquals(1, reopened.count());
+		assertNotNull(reopened.get("http://a"));
+		assertEquals(2, mDir.list().length); // 1张图片和journal
+	}
+
+	public void testReopenDropsUnfinishedPut() throws IOException {
+		DiskImageCache cache = new DiskImageCache(mDir, 1000);
+		File a = cache.put("http://a", bytes(100));
+		cache.put("http://b", bytes(50));
+
+		// 模拟a被覆盖时, 改名之后记录PUT之前进程被杀
+		appendJournal("DIRTY " + a.getName() + " " + a.getName() + ".5.tmp");
+
+		DiskImageCache reopened = new DiskImageCache(mDir, 1000);
+		assertFalse(reopened.contains("http://a"));
+		assertFalse(a.exists());
+		assertTrue(reopened.contains("http://b"));
+		assertEquals(50, reopened.size());
+
+		// 重写后的journal不再包含未完成的写入
+		DiskImageCache again = new DiskImageCache(mDir, 1000);
+		assertEquals(1, again.count());
+		assertEquals(50, again.size());
+	}
+
+	public void testFailedPutKeepsOldEntry() throws IOException {
+		DiskImageCache cache = new DiskImageCache(mDir, 1000);
+		File a = cache.put("http://a", bytes(100));
+
+		InputStream broken = new ByteArrayInputStream(bytes(10)) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				throw new IllegalStateException("broken");
+			}
+		};
+		try {
+			cache.put("http://a", broken);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(2, mDir.list().length); // 临时文件已删除
+
+		DiskImageCache reopened = new DiskImageCache(mDir, 1000);
+		assertTrue(reopened.contains("http://a"));
+		assertEquals(100, a.length());
+		assertEquals(100, reopened.size());
+	}
+
+	public void testCorruptJournalClearsCache() throws IOException {
+		DiskImageCache cache = new DiskImageCache(mDir, 1000);
+		cache.put("http://a", bytes(100));
+
+		FileWriter writer = new FileWriter(new File(mDir, "journal"));
+		writer.write("garbage\n");
+		writer.close();
+
+		DiskImageCache reopened = new DiskImageCache(mDir, 1000);
+		assertEquals(0, reopened.count());
+		assertNull(reopened.get("http://a"));
+		assertEquals(1, mDir.list().length); // 只剩journal
+	}
+}
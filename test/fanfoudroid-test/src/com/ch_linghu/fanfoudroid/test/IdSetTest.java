@@ -0,0 +1,71 @@
+package com.ch_linghu.fanfoudroid.test;
+
+import junit.framework.TestCase;
+
+import com.ch_linghu.fanfoudroid.util.IdSet;
+
+/**
+ * IdSet的集合运算和序列化格式
+ */
+public class IdSetTest extends TestCase {
+
+	private static final String[] FOLLOWERS = new String[] { "ifan",
+			"fanfouapi", "\u62cd\u62cd", "daoru", "ifan", null };
+	private static final String[] FRIENDS = new String[] { "fanfouapi",
+			"\u62cd\u62cd", "someone" };
+
+	public void testSortedAndDistinct() {
+		IdSet ids = IdSet.of(FOLLOWERS);
+		assertEquals(4, ids.size());
+		for (int i = 1; i < ids.size(); i++) {
+			assertTrue(ids.get(i - 1).compareTo(ids.get(i)) < 0);
+		}
+		assertTrue(ids.contains("daoru"));
+		assertFalse(ids.contains("someone"));
+		assertFalse(ids.contains(null));
+	}
+
+	public void testMinusAndIntersect() {
+		IdSet followers = IdSet.of(FOLLOWERS);
+		IdSet friends = IdSet.of(FRIENDS);
+
+		IdSet mutual = followers.intersect(friends);
+		assertEquals(IdSet.of(new String[] { "fanfouapi", "\u62cd\u62cd" }),
+				mutual);
+		assertEquals(IdSet.of(new String[] { "daoru", "ifan" }),
+				followers.minus(friends));
+		assertEquals(IdSet.of(new String[] { "someone" }),
+				friends.minus(followers));
+		assertTrue(followers.intersect(IdSet.EMPTY).isEmpty());
+	}
+
+	public void testBytesRoundTrip() {
+		IdSet ids = IdSet.of(FOLLOWERS);
+		assertEquals(ids, IdSet.fromBytes(ids.toBytes()));
+		assertEquals(IdSet.EMPTY, IdSet.fromBytes(IdSet.EMPTY.toBytes()));
+	}
+
+	public void testRejectsCorruptBytes() {
+		byte[] data = IdSet.of(FOLLOWERS).toBytes();
+		byte[] truncated = new byte[data.length - 2];
+		System.arraycopy(data, 0, truncated, 0, truncated.length);
+		try {
+			IdSet.fromBytes(truncated);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testRejectsOversizedCount() {
+		// version, size = Integer.MAX_VALUE, 没有任何ID
+		byte[] data = new byte[] { IdSet.EMPTY.toBytes()[0], (byte) 0xFF,
+				(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 };
+		try {
+			IdSet.fromBytes(data);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
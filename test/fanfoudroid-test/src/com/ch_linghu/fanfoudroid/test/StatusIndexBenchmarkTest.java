@@ -0,0 +1,190 @@
+package com.ch_linghu.fanfoudroid.test;
+
+import junit.framework.TestCase;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.ch_linghu.fanfoudroid.db.StatusTable;
+import com.ch_linghu.fanfoudroid.db.TwitterDatabase;
+
+/**
+ * 比较status表在有无时间线索引时热点查询和gc的耗时, 每种类型分别10k和100k条
+ */
+public class StatusIndexBenchmarkTest extends TestCase {
+	private static final String TAG = "StatusIndexBenchmark";
+
+	private static final String OWNER = "owner";
+	private static final int[] TYPES = new int[] { StatusTable.TYPE_HOME,
+			StatusTable.TYPE_MENTION, StatusTable.TYPE_USER };
+	private static final int QUERIES = 50;
+
+	private SQLiteDatabase mDb;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDb = SQLiteDatabase.create(null);
+		mDb.execSQL(StatusTable.CREATE_TABLE);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDb.close();
+		super.tearDown();
+	}
+
+	public void test10k() {
+		benchmark(10000);
+	}
+
+	public void test100k() {
+		benchmark(100000);
+	}
+
+	public void testGcKeepsNewest() {
+		populate(100);
+		mDb.execSQL(StatusTable.CREATE_TIMELINE_INDEX);
+
+		int deleted = TwitterDatabase.gc(mDb, OWNER, StatusTable.TYPE_HOME,
+				StatusTable.MAX_ROW_NUM);
+		assertEquals(100 - StatusTable.MAX_ROW_NUM, deleted);
+		assertEquals(StatusTable.MAX_ROW_NUM, count(StatusTable.TYPE_HOME));
+		// 其他类型不受影响
+		assertEquals(100, count(StatusTable.TYPE_MENTION));
+		// 保留的是最新的消息
+		assertEquals(String.valueOf(StatusTable.TYPE_HOME * 1000000 + 99),
+				maxId(StatusTable.TYPE_HOME));
+	}
+
+	private void benchmark(int rowsPerType) {
+		populate(rowsPerType);
+		long[] without = runQueries();
+		long gcWithout = runOldGc(rowsPerType);
+
+		mDb.execSQL("DELETE FROM " + StatusTable.TABLE_NAME);
+		populate(rowsPerType);
+		mDb.execSQL(StatusTable.CREATE_TIMELINE_INDEX);
+		mDb.execSQL(StatusTable.CREATE_UNREAD_INDEX);
+		long[] with = runQueries();
+		long start = System.currentTimeMillis();
+		for (int type : TYPES) {
+			TwitterDatabase.gc(mDb, OWNER, type, StatusTable.MAX_ROW_NUM);
+		}
+		long gcWith = System.currentTimeMillis() - start;
+
+		for (int type : TYPES) {
+			assertEquals(StatusTable.MAX_ROW_NUM, count(type));
+		}
+		Log.i(TAG, rowsPerType + " rows/type: max/min id " + without[0]
+				+ "ms -> " + with[0] + "ms, unread " + without[1] + "ms -> "
+				+ with[1] + "ms, gc " + gcWithout + "ms -> " + gcWith + "ms");
+	}
+
+	private void populate(int rowsPerType) {
+		SQLiteStatement insert = mDb.compileStatement("INSERT INTO "
+				+ StatusTable.TABLE_NAME + " (" + StatusTable._ID + ","
+				+ StatusTable.STATUS_TYPE + "," + StatusTable.OWNER_ID + ","
+				+ StatusTable.USER_ID + "," + StatusTable.USER_SCREEN_NAME
+				+ "," + StatusTable.TEXT + "," + StatusTable.PROFILE_IMAGE_URL
+				+ "," + StatusTable.IS_UNREAD + "," + StatusTable.CREATED_AT
+				+ "," + StatusTable.SOURCE
+				+ ") VALUES (?,?,?,'uid','name','text','url',?,?,'web')");
+		mDb.beginTransaction();
+		try {
+			for (int type : TYPES) {
+				for (int i = 0; i < rowsPerType; i++) {
+					insert.bindString(1, String.valueOf(type * 1000000 + i));
+					insert.bindString(2, String.valueOf(type));
+					insert.bindString(3, OWNER);
+					insert.bindLong(4, i % 10 == 0 ? 1 : 0);
+					insert.bindLong(5, 1300000000000L + i * 1000L);
+					insert.executeInsert();
+				}
+			}
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+			insert.close();
+		}
+	}
+
+	/**
+	 * @return {取最新/最旧ID的耗时, 统计未读数的耗时}
+	 */
+	private long[] runQueries() {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < QUERIES; i++) {
+			maxId(TYPES[i % TYPES.length]);
+			minId(TYPES[i % TYPES.length]);
+		}
+		long ids = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < QUERIES; i++) {
+			Cursor cursor = mDb.rawQuery("SELECT COUNT(*) FROM "
+					+ StatusTable.TABLE_NAME + " WHERE "
+					+ StatusTable.OWNER_ID + " = ? AND "
+					+ StatusTable.STATUS_TYPE + " = ? AND "
+					+ StatusTable.IS_UNREAD + " = 1", new String[] { OWNER,
+					String.valueOf(TYPES[i % TYPES.length]) });
+			cursor.moveToFirst();
+			cursor.close();
+		}
+		return new long[] { ids, System.currentTimeMillis() - start };
+	}
+
+	/**
+	 * 此前gc()使用的 NOT IN 子查询
+	 */
+	private long runOldGc(int rowsPerType) {
+		long start = System.currentTimeMillis();
+		for (int type : TYPES) {
+			mDb.execSQL("DELETE FROM " + StatusTable.TABLE_NAME + " WHERE "
+					+ StatusTable._ID + " NOT IN (SELECT " + StatusTable._ID
+					+ " FROM " + StatusTable.TABLE_NAME + " WHERE "
+					+ StatusTable.OWNER_ID + " = '" + OWNER + "' AND "
+					+ StatusTable.STATUS_TYPE + " = " + type + " ORDER BY "
+					+ StatusTable.CREATED_AT + " DESC LIMIT "
+					+ StatusTable.MAX_ROW_NUM + ") AND "
+					+ StatusTable.OWNER_ID + " = '" + OWNER + "' AND "
+					+ StatusTable.STATUS_TYPE + " = " + type);
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	private String maxId(int type) {
+		return queryId(type, " DESC");
+	}
+
+	private String minId(int type) {
+		return queryId(type, "");
+	}
+
+	private String queryId(int type, String order) {
+		Cursor cursor = mDb.rawQuery("SELECT " + StatusTable._ID + " FROM "
+				+ StatusTable.TABLE_NAME + " WHERE " + StatusTable.OWNER_ID
+				+ " = ? AND " + StatusTable.STATUS_TYPE + " = ? ORDER BY "
+				+ StatusTable.CREATED_AT + order + " LIMIT 1", new String[] {
+				OWNER, String.valueOf(type) });
+		try {
+			return cursor.moveToFirst() ? cursor.getString(0) : null;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private int count(int type) {
+		Cursor cursor = mDb.rawQuery("SELECT COUNT(*) FROM "
+				+ StatusTable.TABLE_NAME + " WHERE " + StatusTable.OWNER_ID
+				+ " = ? AND " + StatusTable.STATUS_TYPE + " = ?", new String[] {
+				OWNER, String.valueOf(type) });
+		try {
+			cursor.moveToFirst();
+			return cursor.getInt(0);
+		} finally {
+			cursor.close();
+		}
+	}
+}
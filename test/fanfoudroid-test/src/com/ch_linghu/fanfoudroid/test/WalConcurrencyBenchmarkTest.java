@@ -0,0 +1,185 @@
+package com.ch_linghu.fanfoudroid.test;
+
+import java.io.File;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.ch_linghu.fanfoudroid.db.PragmaProfile;
+import com.ch_linghu.fanfoudroid.db.StatusTable;
+
+/**
+ * 一个写线程和N个读线程同时访问status表, 比较共用一个连接(回滚日志)与WAL加单独只读连接
+ * 时读的延迟
+ */
+public class WalConcurrencyBenchmarkTest extends AndroidTestCase {
+	private static final String TAG = "WalConcurrencyBenchmark";
+
+	private static final String OWNER = "owner";
+	private static final int READERS = 3;
+	private static final int BATCHES = 50;
+	private static final int BATCH_SIZE = 60;
+
+	private File mFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFile = new File(getContext().getCacheDir(), "wal_benchmark.db");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		deleteDatabase();
+		super.tearDown();
+	}
+
+	public void testSharedConnection() throws Exception {
+		benchmark(false);
+	}
+
+	public void testWalReadConnection() throws Exception {
+		benchmark(true);
+	}
+
+	private void benchmark(boolean walRequested) throws Exception {
+		deleteDatabase();
+		final SQLiteDatabase writer = SQLiteDatabase.openOrCreateDatabase(
+				mFile, null);
+		boolean wal = new PragmaProfile(4096, 256, "NORMAL", walRequested)
+				.apply(writer);
+		writer.execSQL(StatusTable.CREATE_TABLE);
+		writer.execSQL(StatusTable.CREATE_TIMELINE_INDEX);
+		insertBatch(writer, 0);
+
+		Reader[] readers = new Reader[READERS];
+		for (int i = 0; i < READERS; i++) {
+			SQLiteDatabase db = writer;
+			if (wal) {
+				db = SQLiteDatabase.openDatabase(mFile.getPath(), null,
+						SQLiteDatabase.OPEN_READONLY);
+				PragmaProfile.READER.apply(db);
+			}
+			readers[i] = new Reader(db);
+			readers[i].start();
+		}
+
+		long start = System.currentTimeMillis();
+		for (int batch = 1; batch <= BATCHES; batch++) {
+			insertBatch(writer, batch);
+		}
+		long writeTime = System.currentTimeMillis() - start;
+
+		long queries = 0;
+		long totalLatency = 0;
+		long maxLatency = 0;
+		for (Reader reader : readers) {
+			reader.finish();
+			assertNull(reader.mError);
+			queries += reader.mQueries;
+			totalLatency += reader.mTotalLatency;
+			maxLatency = Math.max(maxLatency, reader.mMaxLatency);
+			if (reader.mDb != writer) {
+				reader.mDb.close();
+			}
+		}
+
+		Cursor cursor = writer.rawQuery("SELECT COUNT(*) FROM "
+				+ StatusTable.TABLE_NAME, null);
+		cursor.moveToFirst();
+		assertEquals((BATCHES + 1) * BATCH_SIZE, cursor.getInt(0));
+		cursor.close();
+		writer.close();
+
+		Log.i(TAG, (wal ? "WAL" : "shared connection") + ", " + READERS
+				+ " readers: write " + writeTime + "ms, " + queries
+				+ " queries, mean " + (queries > 0 ? totalLatency / queries : 0)
+				+ "ms, max " + maxLatency + "ms");
+	}
+
+	/**
+	 * 一个事务写入一页时间线, 与putTweets()相同
+	 */
+	private void insertBatch(SQLiteDatabase db, int batch) {
+		SQLiteStatement insert = db.compileStatement("INSERT INTO "
+				+ StatusTable.TABLE_NAME + " (" + StatusTable._ID + ","
+				+ StatusTable.STATUS_TYPE + "," + StatusTable.OWNER_ID + ","
+				+ StatusTable.USER_ID + "," + StatusTable.USER_SCREEN_NAME
+				+ "," + StatusTable.TEXT + "," + StatusTable.PROFILE_IMAGE_URL
+				+ "," + StatusTable.IS_UNREAD + "," + StatusTable.CREATED_AT
+				+ "," + StatusTable.SOURCE
+				+ ") VALUES (?,'1',?,'uid','name','text','url',1,?,'web')");
+		db.beginTransaction();
+		try {
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				int n = batch * BATCH_SIZE + i;
+				insert.bindString(1, String.valueOf(n));
+				insert.bindString(2, OWNER);
+				insert.bindLong(3, 1300000000000L + n * 1000L);
+				insert.executeInsert();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			insert.close();
+		}
+	}
+
+	private void deleteDatabase() {
+		for (String suffix : new String[] { "", "-wal", "-shm", "-journal" }) {
+			new File(mFile.getPath() + suffix).delete();
+		}
+	}
+
+	/**
+	 * 模拟TweetCursorAdapter的requery: 不断读取最新的一页时间线
+	 */
+	private static class Reader extends Thread {
+		private final SQLiteDatabase mDb;
+		private volatile boolean mStopped = false;
+		private Throwable mError;
+		private long mQueries = 0;
+		private long mTotalLatency = 0;
+		private long mMaxLatency = 0;
+
+		Reader(SQLiteDatabase db) {
+			mDb = db;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!mStopped) {
+					long start = System.currentTimeMillis();
+					Cursor cursor = mDb.query(StatusTable.TABLE_NAME,
+							StatusTable.TABLE_COLUMNS, StatusTable.OWNER_ID
+									+ " = ? AND " + StatusTable.STATUS_TYPE
+									+ " = ?", new String[] { OWNER, "1" },
+							null, null, StatusTable.CREATED_AT + " DESC",
+							"20");
+					try {
+						while (cursor.moveToNext()) {
+							cursor.getString(0);
+						}
+					} finally {
+						cursor.close();
+					}
+					long latency = System.currentTimeMillis() - start;
+					mQueries++;
+					mTotalLatency += latency;
+					mMaxLatency = Math.max(mMaxLatency, latency);
+				}
+			} catch (Throwable e) {
+				mError = e;
+			}
+		}
+
+		void finish() throws InterruptedException {
+			mStopped = true;
+			join();
+		}
+	}
+}